@@ -0,0 +1,1083 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import Model.Alarm;
+import Model.ClockChangeListener;
+import Model.ClockModel;
+import Model.ModelListener;
+import Util.DaemonThreadFactory;
+import Util.Log;
+
+/**
+ * @author Brandon Blaschke
+ * Small HTTP and WebSocket server for setting the alarms from phones and scripts. One
+ * thread serves every connection without blocking, and the changes run one at a time on
+ * a thread of their own, so neither ever waits on the drawing thread. The state is kept
+ * as JSON, rebuilt when the model changes and pushed to every WebSocket client.
+ *
+ * GET /state                        Alarms, snooze and whether the alarm is going off.
+ * GET /ws                           WebSocket sent the state on connecting and on every change.
+ * POST /alarms/{n}?time=07:30&amp;active=true&amp;sound=birds   Set an alarm's time, on or off,
+ *                                   sound, or any of them. An empty sound is the default sound.
+ * POST /time?time=19:30:00          Set the system clock's time.
+ * POST /date?date=2020-01-05        Set the system clock's date.
+ * POST /snooze                      Snooze the alarm that is going off.
+ * POST /stop                        Turn off the alarm and any snooze.
+ *
+ * Parameters can also be sent as a form body. Listens on the port set with
+ * -Dalarmclock.control.port, 0 turns it off. Only clients on the same machine can
+ * connect unless another address is set with -Dalarmclock.control.address, such as
+ * 0.0.0.0 for every interface. If -Dalarmclock.control.token is set every request must
+ * give it as a token parameter or an "Authorization: Bearer" header. Requests a browser
+ * makes for a page from another site, which carry an Origin other than the clock, are
+ * refused.
+ */
+public class ControlServer {
+	
+	/**
+	 * Log for network errors.
+	 */
+	private static final Log LOG = Log.site("ControlServer");
+	
+	/**
+	 * Port listened on unless set with -Dalarmclock.control.port.
+	 */
+	public static final int DEFAULT_PORT = 8642;
+	
+	/**
+	 * Address listened on unless set with -Dalarmclock.control.address, only this machine.
+	 */
+	public static final String DEFAULT_ADDRESS = "127.0.0.1";
+	
+	/**
+	 * Most clients connected at once, more are turned away.
+	 */
+	private static final int MAX_CONNECTIONS = 256;
+	
+	/**
+	 * Largest request, or WebSocket frame, read from a client.
+	 */
+	private static final int MAX_REQUEST = 8192;
+	
+	/**
+	 * Most bytes waiting to be sent to a client before it is taken as too slow and dropped.
+	 */
+	private static final int MAX_QUEUED = 64 * 1024;
+	
+	/**
+	 * Time a client can be quiet before it is closed, WebSocket clients are pinged first.
+	 */
+	private static final long IDLE_MILLIS = 30000;
+	
+	/**
+	 * Longest the server thread waits before looking for idle clients.
+	 */
+	private static final long SWEEP_MILLIS = 1000;
+	
+	/**
+	 * Added to the client's key to accept a WebSocket, from RFC 6455.
+	 */
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	
+	/**
+	 * WebSocket frame opcodes.
+	 */
+	private static final int TEXT = 0x1;
+	private static final int CLOSE = 0x8;
+	private static final int PING = 0x9;
+	private static final int PONG = 0xA;
+	
+	/**
+	 * Model whose state is served.
+	 */
+	private ClockModel clockModel;
+	
+	/**
+	 * Makes the changes asked for.
+	 */
+	private Controller controller;
+	
+	/**
+	 * Formats the alarm times.
+	 */
+	private DateTimeFormatter timeFormat;
+	
+	/**
+	 * Token every request must give, null if none.
+	 */
+	private String token;
+	
+	/**
+	 * Waits for the connections, null until started.
+	 */
+	private Selector selector;
+	
+	/**
+	 * Accepts the connections.
+	 */
+	private ServerSocketChannel serverChannel;
+	
+	/**
+	 * Runs the changes, one at a time.
+	 */
+	private ExecutorService commands;
+	
+	/**
+	 * Responses to finished changes, sent by the server thread.
+	 */
+	private ConcurrentLinkedQueue<Runnable> finished;
+	
+	/**
+	 * Current state as JSON.
+	 */
+	private volatile byte[] state;
+	
+	/**
+	 * Number of times the state changed.
+	 */
+	private long version;
+	
+	/**
+	 * True when the state changed and hasn't been pushed yet.
+	 */
+	private AtomicBoolean statePending;
+	
+	/**
+	 * Create a ControlServer.
+	 * @param theModel Model whose state is served.
+	 * @param theController Makes the changes asked for.
+	 */
+	public ControlServer(ClockModel theModel, Controller theController) {
+		clockModel = theModel;
+		controller = theController;
+		timeFormat = DateTimeFormatter.ofPattern("HH:mm:ss", Locale.US);
+		finished = new ConcurrentLinkedQueue<Runnable>();
+		statePending = new AtomicBoolean();
+	}
+	
+	/**
+	 * Start listening. Does nothing if already started or turned off.
+	 */
+	public synchronized void start() {
+		if (selector != null)
+			return;
+		
+		int port = Integer.getInteger("alarmclock.control.port", DEFAULT_PORT);
+		if (port <= 0)
+			return;
+		token = System.getProperty("alarmclock.control.token");
+		String address = System.getProperty("alarmclock.control.address", DEFAULT_ADDRESS);
+		
+		InetSocketAddress bound;
+		try {
+			bound = new InetSocketAddress(InetAddress.getByName(address), port);
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(false);
+			serverChannel.bind(bound);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			LOG.error("Couldn't listen on " + address + " port " + port, e);
+			closeQuietly();
+			return;
+		}
+		if (!bound.getAddress().isLoopbackAddress() && token == null)
+			LOG.warn("Listening on " + address + " without -Dalarmclock.control.token,"
+					+ " anyone on the network can change the alarms and the clock", null);
+		
+		commands = Executors.newSingleThreadExecutor(new DaemonThreadFactory("control-commands"));
+		clockModel.addModelListener(new ModelListener() {
+			@Override
+			public void modelChanged() {
+				state = stateJson();
+				if (statePending.compareAndSet(false, true))
+					selector.wakeup();
+			}
+		});
+		new DaemonThreadFactory("control-server").newThread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}).start();
+	}
+	
+	/**
+	 * Close the selector and listening channel after a failed start.
+	 */
+	private void closeQuietly() {
+		try {
+			if (serverChannel != null)
+				serverChannel.close();
+			if (selector != null)
+				selector.close();
+		} catch (IOException e) {
+			LOG.warn("Couldn't close the listening channel", e);
+		}
+		selector = null;
+		serverChannel = null;
+	}
+	
+	/**
+	 * Serve the connections until the program exits.
+	 */
+	private void serve() {
+		while (true) {
+			try {
+				selector.select(SWEEP_MILLIS);
+			} catch (IOException e) {
+				LOG.error("Selector failed, no longer serving", e);
+				return;
+			}
+			
+			Runnable response;
+			while ((response = finished.poll()) != null) {
+				response.run();
+			}
+			if (statePending.getAndSet(false))
+				pushState();
+			
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						Connection connection = (Connection) key.attachment();
+						if (key.isReadable())
+							connection.read();
+						if (key.isValid() && key.isWritable())
+							connection.write();
+					}
+				} catch (IOException e) {
+					if (key.attachment() != null) {
+						((Connection) key.attachment()).close();
+					} else {
+						LOG.warn("Couldn't accept a connection", e);
+					}
+				} catch (CancelledKeyException e) {
+					// Closed while handling another key.
+				} catch (RuntimeException e) {
+					// A bug handling one client mustn't stop the server for the others.
+					LOG.error("Failed handling a connection, closing it", e);
+					if (key.attachment() != null)
+						((Connection) key.attachment()).close();
+				}
+			}
+			
+			closeIdle();
+		}
+	}
+	
+	/**
+	 * Accept a waiting client, or turn it away if there are too many.
+	 * @throws IOException If the client couldn't be accepted.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null)
+			return;
+		if (selector.keys().size() > MAX_CONNECTIONS) {
+			channel.close();
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+	
+	/**
+	 * Close clients that have been quiet too long, pinging WebSocket clients first.
+	 */
+	private void closeIdle() {
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			Connection connection = (Connection) key.attachment();
+			if (connection == null || connection.busy)
+				continue;
+			long quiet = now - connection.lastActive;
+			if (connection.webSocket && quiet > IDLE_MILLIS && !connection.pinged) {
+				connection.pinged = true;
+				connection.send(frame(PING, new byte[0], 0, 0));
+			} else if (quiet > (connection.webSocket ? 2 * IDLE_MILLIS : IDLE_MILLIS)) {
+				connection.close();
+			}
+		}
+	}
+	
+	/**
+	 * Send the state to every WebSocket client.
+	 */
+	private void pushState() {
+		byte[] json = state;
+		ByteBuffer frame = frame(TEXT, json, 0, json.length);
+		for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			Connection connection = (Connection) key.attachment();
+			if (connection != null && connection.webSocket)
+				connection.send(frame.duplicate());
+		}
+	}
+	
+	/**
+	 * Current state of the model as JSON. Called while the model is locked.
+	 * @return State as JSON.
+	 */
+	private byte[] stateJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"version\":").append(++version);
+		sb.append(",\"alarmOn\":").append(clockModel.isAlarmOn());
+		Instant snooze = clockModel.getSnoozeTime();
+		sb.append(",\"snoozeUntil\":").append(snooze == null ? "null" : "\"" + snooze + "\"");
+		sb.append(",\"alarms\":[");
+		for (Alarm alarm : clockModel.getAlarms()) {
+			if (sb.charAt(sb.length() - 1) != '[')
+				sb.append(',');
+			sb.append("{\"number\":").append(alarm.number);
+			sb.append(",\"time\":\"").append(timeFormat.format(alarm.time)).append('"');
+			sb.append(",\"active\":").append(alarm.isActive);
+			sb.append(",\"sound\":").append(quote(clockModel.getSounds().resolve(alarm.sound))).append('}');
+		}
+		sb.append("],\"sounds\":[");
+		for (String sound : clockModel.getSounds().getNames()) {
+			if (sb.charAt(sb.length() - 1) != '[')
+				sb.append(',');
+			sb.append(quote(sound));
+		}
+		sb.append("]}");
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * JSON body for an error.
+	 * @param message What went wrong.
+	 * @return Error as JSON.
+	 */
+	private static byte[] error(String message) {
+		return ("{\"error\":" + quote(String.valueOf(message)) + "}").getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Text as a JSON string.
+	 * @param text Text to quote, may be null.
+	 * @return Quoted and escaped text, or null.
+	 */
+	private static String quote(String text) {
+		if (text == null)
+			return "null";
+		StringBuilder sb = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+	
+	/**
+	 * Unmasked WebSocket frame, as the server sends them.
+	 * @param opcode Frame opcode.
+	 * @param payload Bytes holding the payload.
+	 * @param off Start of the payload.
+	 * @param len Length of the payload.
+	 * @return Frame ready to send.
+	 */
+	private static ByteBuffer frame(int opcode, byte[] payload, int off, int len) {
+		ByteBuffer frame = ByteBuffer.allocate(len + 10);
+		frame.put((byte) (0x80 | opcode));
+		if (len < 126) {
+			frame.put((byte) len);
+		} else if (len < 65536) {
+			frame.put((byte) 126);
+			frame.putShort((short) len);
+		} else {
+			frame.put((byte) 127);
+			frame.putLong(len);
+		}
+		frame.put(payload, off, len);
+		frame.flip();
+		return frame;
+	}
+	
+	/**
+	 * Parse the parameters of a query string or form body into the map.
+	 * @param encoded URL encoded parameters.
+	 * @param params Map to add them to.
+	 */
+	private static void parseParams(String encoded, Map<String, String> params) {
+		for (String pair : encoded.split("&")) {
+			if (pair.isEmpty())
+				continue;
+			int eq = pair.indexOf('=');
+			try {
+				String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+				String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+				params.put(name, value);
+			} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+				// Skip a badly encoded parameter, the request fails for missing it.
+			}
+		}
+	}
+	
+	/**
+	 * A change asked for by a client, run on the commands thread.
+	 */
+	private interface Command {
+		
+		/**
+		 * Make the change and reply, now or later from another thread.
+		 * @param reply Sends the response.
+		 * @throws Exception If the change couldn't be made, sent as a bad request.
+		 */
+		void run(Reply reply) throws Exception;
+	}
+	
+	/**
+	 * Sends the response to a change from any thread.
+	 */
+	private class Reply {
+		private final Connection connection;
+		private final boolean keepAlive;
+		
+		Reply(Connection connection, boolean keepAlive) {
+			this.connection = connection;
+			this.keepAlive = keepAlive;
+		}
+		
+		/**
+		 * Respond with the current state.
+		 */
+		void sendState() {
+			send(200, state);
+		}
+		
+		/**
+		 * Respond once the server thread gets to it.
+		 * @param status HTTP status.
+		 * @param body JSON body.
+		 */
+		void send(final int status, final byte[] body) {
+			finished.add(new Runnable() {
+				@Override
+				public void run() {
+					connection.finish(status, body, keepAlive);
+				}
+			});
+			selector.wakeup();
+		}
+	}
+	
+	/**
+	 * One client. Only used on the server thread.
+	 */
+	private class Connection {
+		
+		private final SocketChannel channel;
+		
+		private SelectionKey key;
+		
+		/**
+		 * Bytes read and not handled yet.
+		 */
+		private final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST);
+		
+		/**
+		 * Bytes waiting to be sent.
+		 */
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+		
+		/**
+		 * Number of bytes waiting to be sent.
+		 */
+		private int queued;
+		
+		/**
+		 * True once upgraded to a WebSocket.
+		 */
+		private boolean webSocket;
+		
+		/**
+		 * True while a change is running, the next request waits for it.
+		 */
+		private boolean busy;
+		
+		/**
+		 * True to close once everything waiting is sent.
+		 */
+		private boolean closing;
+		
+		/**
+		 * True if pinged for being quiet.
+		 */
+		private boolean pinged;
+		
+		/**
+		 * Last time anything was read from the client.
+		 */
+		private long lastActive;
+		
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			lastActive = System.currentTimeMillis();
+		}
+		
+		/**
+		 * Read what the client sent and handle every whole request or frame in it.
+		 * @throws IOException If reading failed.
+		 */
+		void read() throws IOException {
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+			lastActive = System.currentTimeMillis();
+			pinged = false;
+			handleInput();
+		}
+		
+		/**
+		 * Handle the requests or frames read so far.
+		 */
+		private void handleInput() {
+			while (!busy && !closing && key.isValid()) {
+				boolean handled = webSocket ? handleFrame() : handleRequest();
+				if (!handled)
+					break;
+			}
+			if (!busy && !closing && !in.hasRemaining()) {
+				if (webSocket) {
+					closeWebSocket(1009);
+				} else {
+					finish(431, error("Request too large"), false);
+				}
+			}
+		}
+		
+		/**
+		 * Handle the next HTTP request if all of it has been read.
+		 * @return True if a request was handled.
+		 */
+		private boolean handleRequest() {
+			byte[] bytes = in.array();
+			int end = -1;
+			for (int i = 3; i < in.position(); i++) {
+				if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+					end = i + 1;
+					break;
+				}
+			}
+			if (end < 0)
+				return false;
+			
+			String[] lines = new String(bytes, 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+			String[] requestLine = lines[0].split(" ");
+			if (requestLine.length != 3) {
+				finish(400, error("Bad request line"), false);
+				return true;
+			}
+			
+			HashMap<String, String> headers = new HashMap<String, String>();
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon > 0)
+					headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US), lines[i].substring(colon + 1).trim());
+			}
+			
+			int length = 0;
+			try {
+				if (headers.containsKey("content-length"))
+					length = Integer.parseInt(headers.get("content-length"));
+			} catch (NumberFormatException e) {
+				length = -1;
+			}
+			if (length < 0 || end + length > in.capacity()) {
+				finish(413, error("Body too large"), false);
+				return true;
+			}
+			if (in.position() < end + length)
+				return false;
+			
+			String method = requestLine[0];
+			String target = requestLine[1];
+			HashMap<String, String> params = new HashMap<String, String>();
+			int query = target.indexOf('?');
+			String path = query < 0 ? target : target.substring(0, query);
+			if (query >= 0)
+				parseParams(target.substring(query + 1), params);
+			if (length > 0)
+				parseParams(new String(bytes, end, length, StandardCharsets.UTF_8), params);
+			
+			boolean keepAlive = requestLine[2].equals("HTTP/1.1")
+					? !"close".equalsIgnoreCase(headers.get("connection"))
+					: "keep-alive".equalsIgnoreCase(headers.get("connection"));
+			
+			// Drop the request from the buffer, keeping anything sent after it.
+			in.flip();
+			in.position(end + length);
+			in.compact();
+			
+			handle(method, path, headers, params, keepAlive);
+			return true;
+		}
+		
+		/**
+		 * Route a request.
+		 */
+		private void handle(String method, String path, Map<String, String> headers,
+				Map<String, String> params, boolean keepAlive) {
+			if (token != null && !sameSecret(params.get("token"), token)
+					&& !sameSecret(headers.get("authorization"), "Bearer " + token)) {
+				finish(401, error("Missing or wrong token"), keepAlive);
+				return;
+			}
+			
+			// A page from another site the browser is showing mustn't reach the clock.
+			if (!sameOrigin(headers)) {
+				finish(403, error("Cross-origin requests aren't allowed"), keepAlive);
+				return;
+			}
+			
+			if (path.equals("/state") || path.equals("/ws")) {
+				if (!method.equals("GET")) {
+					finish(405, error("Use GET"), keepAlive);
+				} else if (path.equals("/ws")) {
+					upgrade(headers);
+				} else {
+					finish(200, state, keepAlive);
+				}
+				return;
+			}
+			
+			if (!method.equals("POST")) {
+				finish(path.matches("/alarms/\\d+|/time|/date|/snooze|/stop") ? 405 : 404,
+						error("Not found"), keepAlive);
+				return;
+			}
+			
+			try {
+				Command command = command(path, params);
+				if (command == null) {
+					finish(404, error("Not found"), keepAlive);
+				} else {
+					run(command, keepAlive);
+				}
+			} catch (DateTimeException | IllegalArgumentException e) {
+				finish(400, error(e.getMessage()), keepAlive);
+			}
+		}
+		
+		/**
+		 * Checks if a request was sent from a page of the server itself or not from a
+		 * browser page at all. Browsers send Origin with WebSocket connections and form
+		 * posts made by a page, scripts and apps don't.
+		 * @param headers Request headers, names in lower case.
+		 * @return True if there is no Origin or it has the host the request was sent to.
+		 */
+		private boolean sameOrigin(Map<String, String> headers) {
+			String origin = headers.get("origin");
+			if (origin == null)
+				return true;
+			String host = headers.get("host");
+			int scheme = origin.indexOf("://");
+			return host != null && scheme > 0 && origin.substring(scheme + 3).equalsIgnoreCase(host);
+		}
+		
+		/**
+		 * Check the parameters of a change on the server thread, so a bad request never
+		 * reaches the model.
+		 * @param path Request path.
+		 * @param params Request parameters.
+		 * @return Change to make, or null if there is none at the path.
+		 */
+		private Command command(String path, Map<String, String> params) {
+			if (path.startsWith("/alarms/")) {
+				final int number = Integer.parseInt(path.substring("/alarms/".length()));
+				if (number < 1 || number > clockModel.getAlarms().size())
+					return null;
+				final LocalTime time = params.containsKey("time") ? LocalTime.parse(params.get("time")) : null;
+				final String active = params.get("active");
+				final String sound = params.get("sound");
+				if (time == null && active == null && sound == null)
+					throw new IllegalArgumentException("Give a time, active or sound");
+				if (active != null && !active.equals("true") && !active.equals("false"))
+					throw new IllegalArgumentException("active must be true or false");
+				if (sound != null && !sound.isEmpty() && !clockModel.getSounds().contains(sound))
+					throw new IllegalArgumentException("No sound called " + sound);
+				return new Command() {
+					@Override
+					public void run(Reply reply) throws Exception {
+						if (time != null)
+							controller.setAlarm(number, time);
+						if (active != null)
+							controller.setAlarm(number, Boolean.parseBoolean(active));
+						if (sound != null)
+							controller.setAlarmSound(number, sound.isEmpty() ? null : sound);
+						reply.sendState();
+					}
+				};
+			}
+			
+			if (path.equals("/time")) {
+				if (!params.containsKey("time"))
+					throw new IllegalArgumentException("Give a time");
+				final LocalTime time = LocalTime.parse(params.get("time"));
+				return new Command() {
+					@Override
+					public void run(Reply reply) {
+						int hour = time.getHour() % 12 == 0 ? 12 : time.getHour() % 12;
+						controller.setTime(String.format("%02d", hour), String.format("%02d", time.getMinute()),
+								String.format("%02d", time.getSecond()), time.getHour() < 12 ? "AM" : "PM",
+								clockChanged(reply));
+					}
+				};
+			}
+			
+			if (path.equals("/date")) {
+				if (!params.containsKey("date"))
+					throw new IllegalArgumentException("Give a date");
+				final LocalDate date = LocalDate.parse(params.get("date"));
+				return new Command() {
+					@Override
+					public void run(Reply reply) {
+						controller.setDate(String.format("%04d", date.getYear()), String.format("%02d", date.getMonthValue()),
+								String.format("%02d", date.getDayOfMonth()), clockChanged(reply));
+					}
+				};
+			}
+			
+			if (path.equals("/snooze") || path.equals("/stop")) {
+				final boolean snooze = path.equals("/snooze");
+				return new Command() {
+					@Override
+					public void run(Reply reply) {
+						if (snooze && !clockModel.isAlarmOn()) {
+							reply.send(409, error("No alarm is going off"));
+							return;
+						}
+						if (snooze) {
+							controller.snooze();
+						} else {
+							controller.stopAlarm();
+						}
+						reply.sendState();
+					}
+				};
+			}
+			return null;
+		}
+		
+		/**
+		 * Listener replying once the system clock was changed.
+		 * @param reply Sends the response.
+		 * @return Listener for the change.
+		 */
+		private ClockChangeListener clockChanged(final Reply reply) {
+			return new ClockChangeListener() {
+				@Override
+				public void clockChanged(boolean succeeded, String output) {
+					if (succeeded) {
+						reply.sendState();
+					} else {
+						reply.send(500, error(output));
+					}
+				}
+			};
+		}
+		
+		/**
+		 * Run a change on the commands thread. Reading stops until it has replied, so the
+		 * responses go out in the order the requests came in.
+		 * @param command Change to make.
+		 * @param keepAlive True to keep the connection open after replying.
+		 */
+		private void run(final Command command, boolean keepAlive) {
+			final Reply reply = new Reply(this, keepAlive);
+			busy = true;
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			commands.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						command.run(reply);
+					} catch (Exception e) {
+						reply.send(400, error(e.getMessage()));
+					}
+				}
+			});
+		}
+		
+		/**
+		 * Send a response and carry on with the next request.
+		 * @param status HTTP status.
+		 * @param body JSON body.
+		 * @param keepAlive True to keep the connection open.
+		 */
+		void finish(int status, byte[] body, boolean keepAlive) {
+			if (!key.isValid())
+				return;
+			StringBuilder head = new StringBuilder();
+			head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+			head.append("Content-Type: application/json\r\n");
+			head.append("Content-Length: ").append(body.length).append("\r\n");
+			head.append("Cache-Control: no-store\r\n");
+			if (!keepAlive)
+				head.append("Connection: close\r\n");
+			head.append("\r\n");
+			
+			send(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+			send(ByteBuffer.wrap(body));
+			if (!keepAlive)
+				closing = true;
+			
+			if (busy) {
+				busy = false;
+				if (key.isValid()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+					handleInput();
+				}
+			}
+		}
+		
+		/**
+		 * Upgrade to a WebSocket and send the state.
+		 * @param headers Request headers.
+		 */
+		private void upgrade(Map<String, String> headers) {
+			String clientKey = headers.get("sec-websocket-key");
+			String upgrade = headers.get("upgrade");
+			if (clientKey == null || upgrade == null || !upgrade.equalsIgnoreCase("websocket")) {
+				finish(400, error("Not a WebSocket request"), false);
+				return;
+			}
+			
+			String accept;
+			try {
+				MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+				accept = Base64.getEncoder().encodeToString(
+						sha1.digest((clientKey + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			
+			String head = "HTTP/1.1 101 Switching Protocols\r\n"
+					+ "Upgrade: websocket\r\n"
+					+ "Connection: Upgrade\r\n"
+					+ "Sec-WebSocket-Accept: " + accept + "\r\n\r\n";
+			send(ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1)));
+			webSocket = true;
+			byte[] json = state;
+			send(frame(TEXT, json, 0, json.length));
+		}
+		
+		/**
+		 * Handle the next WebSocket frame if all of it has been read. Clients only need
+		 * to answer pings and close, changes are made over HTTP.
+		 * @return True if a frame was handled.
+		 */
+		private boolean handleFrame() {
+			if (in.position() < 2)
+				return false;
+			byte[] bytes = in.array();
+			int opcode = bytes[0] & 0x0F;
+			boolean masked = (bytes[1] & 0x80) != 0;
+			long length = bytes[1] & 0x7F;
+			int header = 2;
+			if (length == 126) {
+				if (in.position() < 4)
+					return false;
+				length = ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+				header = 4;
+			} else if (length == 127) {
+				if (in.position() < 10)
+					return false;
+				length = ByteBuffer.wrap(bytes, 2, 8).getLong();
+				header = 10;
+				// The top bit of a 64 bit length must be 0, a negative length is a bad frame.
+				if (length < 0) {
+					closeWebSocket(1002);
+					return true;
+				}
+			}
+			
+			if (!masked) {
+				closeWebSocket(1002);
+				return true;
+			}
+			if (length > in.capacity() - header - 4) {
+				closeWebSocket(1009);
+				return true;
+			}
+			int start = header + 4;
+			int end = start + (int) length;
+			if (in.position() < end)
+				return false;
+			
+			for (int i = 0; i < length; i++) {
+				bytes[start + i] ^= bytes[header + (i & 3)];
+			}
+			
+			switch (opcode) {
+			case CLOSE:
+				send(frame(CLOSE, bytes, start, (int) Math.min(length, 2)));
+				closing = true;
+				break;
+			case PING:
+				send(frame(PONG, bytes, start, (int) length));
+				break;
+			default:
+				// Text, binary and pongs are ignored.
+				break;
+			}
+			
+			in.flip();
+			in.position(end);
+			in.compact();
+			return true;
+		}
+		
+		/**
+		 * Close the WebSocket with a status code.
+		 * @param code Close status code.
+		 */
+		private void closeWebSocket(int code) {
+			send(frame(CLOSE, new byte[] {(byte) (code >> 8), (byte) code}, 0, 2));
+			closing = true;
+		}
+		
+		/**
+		 * Queue bytes to send and send what the socket takes now. A client that falls too
+		 * far behind is closed.
+		 * @param buffer Bytes to send.
+		 */
+		void send(ByteBuffer buffer) {
+			if (!key.isValid())
+				return;
+			if (queued + buffer.remaining() > MAX_QUEUED) {
+				close();
+				return;
+			}
+			out.add(buffer);
+			queued += buffer.remaining();
+			try {
+				write();
+			} catch (IOException e) {
+				close();
+			}
+		}
+		
+		/**
+		 * Send as much of what is waiting as the socket takes.
+		 * @throws IOException If writing failed.
+		 */
+		void write() throws IOException {
+			while (!out.isEmpty()) {
+				ByteBuffer buffer = out.peek();
+				queued -= channel.write(buffer);
+				if (buffer.hasRemaining())
+					break;
+				out.poll();
+			}
+			
+			if (out.isEmpty()) {
+				if (closing) {
+					close();
+				} else {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				}
+			} else {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+		
+		/**
+		 * Close the connection.
+		 */
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.warn("Couldn't close a connection", e);
+			}
+		}
+	}
+	
+	/**
+	 * Compare a secret in a time that doesn't depend on where they first differ, so the
+	 * token can't be guessed a character at a time.
+	 * @param given Value sent by the client, may be null.
+	 * @param expected Value it must be.
+	 * @return True if they are the same.
+	 */
+	private static boolean sameSecret(String given, String expected) {
+		return given != null && MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+				expected.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Reason phrase of an HTTP status.
+	 * @param status HTTP status.
+	 * @return Reason phrase.
+	 */
+	private static String reason(int status) {
+		switch (status) {
+		case 200:
+			return "OK";
+		case 400:
+			return "Bad Request";
+		case 401:
+			return "Unauthorized";
+		case 403:
+			return "Forbidden";
+		case 404:
+			return "Not Found";
+		case 405:
+			return "Method Not Allowed";
+		case 409:
+			return "Conflict";
+		case 413:
+			return "Payload Too Large";
+		case 431:
+			return "Request Header Fields Too Large";
+		default:
+			return "Internal Server Error";
+		}
+	}
+}
@@ -2,7 +2,10 @@ package Controller;
 
 import java.time.LocalTime;
 
+import Model.Alarm;
+import Model.ClockChangeListener;
 import Model.ClockModel;
+import Util.Log;
 
 /**
  * Controller class to control model.
@@ -11,6 +14,11 @@ import Model.ClockModel;
  */
 public class Controller {
 	
+	/**
+	 * Log for changes that failed.
+	 */
+	private static final Log LOG = Log.site("Controller");
+	
 	/**
 	 * Reference to the clock model in main.
 	 */
@@ -32,8 +40,20 @@ public class Controller {
 	 * @param timeOfDay Time of day, e.g "AM" or "PM"
 	 */
 	public void setTime(String hour, String min, String second, String timeOfDay) {
+		setTime(hour, min, second, timeOfDay, null);
+	}
+	
+	/**
+	 * Sets the time for the clock model in the background.
+	 * @param hour Hour of the day.
+	 * @param min Minute of the hour.
+	 * @param second Second of the minute.
+	 * @param timeOfDay Time of day, e.g "AM" or "PM"
+	 * @param listener Told on a background thread when the clock was changed, may be null.
+	 */
+	public void setTime(String hour, String min, String second, String timeOfDay, ClockChangeListener listener) {
 		String newTime = String.format("%s:%s:%s %s", hour, min, second, timeOfDay);
-		clockModel.setTime(newTime);
+		clockModel.setTime(newTime, listener);
 	}
 	
 	/**
@@ -43,8 +63,19 @@ public class Controller {
 	 * @param day The day.
 	 */
 	public void setDate(String year, String month, String day) {
+		setDate(year, month, day, null);
+	}
+	
+	/**
+	 * Sets the date for the clock model in the background.
+	 * @param year New year.
+	 * @param month The month.
+	 * @param day The day.
+	 * @param listener Told on a background thread when the clock was changed, may be null.
+	 */
+	public void setDate(String year, String month, String day, ClockChangeListener listener) {
 		String newDate = String.format("%s-%s-%s", year, month, day);
-		clockModel.setDate(newDate);	
+		clockModel.setDate(newDate, listener);
 	}
 	
 	/**
@@ -77,11 +108,18 @@ public class Controller {
 		clockModel.setAlarm(alarmNum, newTime);
 	}
 	
-	public void setAlarm(int alarmNum, LocalTime newTime) {
+	/**
+	 * Sets the alarm to the time.
+	 * @param alarmNum Number of the alarm.
+	 * @param newTime Time to set.
+	 * @return The changed alarm, or null if it doesn't exist.
+	 */
+	public Alarm setAlarm(int alarmNum, LocalTime newTime) {
 		try {
-			clockModel.setAlarm(alarmNum, newTime);
+			return clockModel.setAlarm(alarmNum, newTime);
 		} catch (Exception e) {
-			e.printStackTrace();
+			LOG.error("Couldn't set alarm " + alarmNum, e);
+			return null;
 		}
 	}
 	
@@ -89,10 +127,36 @@ public class Controller {
 	 * Sets the alarm to be active or not.
 	 * @param alarmNum Number of the alarm to change.
 	 * @param isActive True to activate alarm clock, False otherwise.
+	 * @return The changed alarm.
+	 * @throws Exception 
+	 */
+	public Alarm setAlarm(int alarmNum, boolean isActive) throws Exception {
+		return clockModel.setAlarm(alarmNum, isActive);
+	}
+	
+	/**
+	 * Sets the sound the alarm plays.
+	 * @param alarmNum Number of the alarm to change.
+	 * @param sound Name of the sound, null for the default sound.
+	 * @return The changed alarm.
 	 * @throws Exception 
 	 */
-	public void setAlarm(int alarmNum, boolean isActive) throws Exception {
-		clockModel.setAlarm(alarmNum, isActive);
+	public Alarm setAlarmSound(int alarmNum, String sound) throws Exception {
+		return clockModel.setAlarmSound(alarmNum, sound);
+	}
+	
+	/**
+	 * Snooze the alarm that is going off.
+	 */
+	public void snooze() {
+		clockModel.setSnooze();
+	}
+	
+	/**
+	 * Turn off the alarm and any snooze.
+	 */
+	public void stopAlarm() {
+		clockModel.stopAlarm();
 	}
 	
 }
@@ -1,24 +1,72 @@
 package Main;
 
+import Controller.ControlServer;
 import Controller.Controller;
+import Model.AlarmReplicator;
 import Model.ClockModel;
+import Model.Watchdog;
+import Util.Heartbeat;
+import Util.Log;
+import Util.Metrics;
+import Util.StartupTimer;
+import View.FrameScheduler;
+import View.InputQueue;
 import View.View;
 import processing.core.PApplet;
+import processing.event.Event;
 import processing.event.MouseEvent;
 
 public class Main extends PApplet {
 	
+	/**
+	 * Log for starting up.
+	 */
+	private static final Log LOG = Log.site("Main");
+	
+	/**
+	 * Log for exceptions while drawing, which can repeat every frame.
+	 */
+	private static final Log DRAW_LOG = Log.site("Main.draw");
+	
 	public static ClockModel clockModel;
 	
 	public static Controller controller;
 	
 	public static View view;
 	
-	private static boolean mousePressed = false;
+	public static ControlServer controlServer;
+	
+	public static AlarmReplicator replicator;
+	
+	public static Watchdog watchdog;
+	
+	/**
+	 * Decides when frames are drawn. Volatile as touches arrive on the event thread,
+	 * made before the view so it is there once the view takes touches.
+	 */
+	private volatile FrameScheduler frames;
+	
+	/**
+	 * Heartbeat of draw(), watched by the watchdog.
+	 */
+	private final Heartbeat frameBeat = new Heartbeat("draw");
+	
+	/**
+	 * True to save the fonts to the data folder and exit instead of running the clock.
+	 */
+	private static boolean bakeFonts = false;
+	
+	/**
+	 * True until the first frame has been drawn.
+	 */
+	private boolean firstFrame = true;
 	
-	private static boolean mouseReleased = false;
-
 	public static void main(String[] args) {	
+		StartupTimer.start();
+		for (String arg : args) {
+			if (arg.equals("--bake-fonts"))
+				bakeFonts = true;
+		}
 		PApplet.main("Main.Main");
 	}
 	
@@ -34,49 +82,90 @@ public class Main extends PApplet {
 	 * Setup variables
 	 */
 	public void setup() {
+		StartupTimer.mark("window");
 		clockModel = new ClockModel(3);
+		StartupTimer.mark("model");
 		controller = new Controller(clockModel);
+		frames = new FrameScheduler(this, clockModel);
 		view = new View(clockModel, controller, this);
+		StartupTimer.mark("view");
+		
+		// Baking the fonts only needs the view, nothing is served or watched.
+		if (bakeFonts) {
+			try {
+				view.bakeFonts();
+				LOG.info("Fonts saved to " + dataPath(""));
+			} catch (Exception e) {
+				LOG.error("Couldn't save the fonts", e);
+			}
+			exit();
+			return;
+		}
+		
+		Metrics.start();
+		controlServer = new ControlServer(clockModel, controller);
+		controlServer.start();
+		replicator = new AlarmReplicator(clockModel);
+		replicator.start();
+		frames.start();
+		watchdog = new Watchdog(clockModel, frameBeat);
+		watchdog.start();
 	}
 	
 	/**
 	 * Draws objects on screen 
 	 */
 	public void draw() {
+		frameBeat.begin();
+		long start = System.nanoTime();
 		clear();
 		
 		try {
 			view.display();
-			clockModel.checkAlarm();
 		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			DRAW_LOG.error("Frame failed", e);
+		}
+		
+		Metrics.FRAME_TIME.recordNanos(System.nanoTime() - start);
+		frames.frameDrawn();
+		frameBeat.end();
+		
+		if (firstFrame) {
+			firstFrame = false;
+			StartupTimer.mark("first frame");
+			LOG.info(StartupTimer.report());
 		}
-	}
-	
-	public void mousePressed() {
-		mousePressed = true;
-	}
-	
-	public void mouseReleased() {
-		mouseReleased = true;
-	}
-	
-	public void mouseMoved() {
-		mousePressed = false;
-		mouseReleased = false;
 	}
 	
 	/**
-	 * Check if mouse clicked or not.
+	 * Queue touch events for the view as they arrive, with the time they happened.
+	 * Called on the event thread.
 	 */
-	public boolean getMouseClicked() {
-		if (mousePressed && mouseReleased) {
-			mousePressed = false;
-			mouseReleased = false;
-			return true;
+	@Override
+	public void postEvent(Event pe) {
+		if (view != null && pe instanceof MouseEvent) {
+			int type = 0;
+			switch (pe.getAction()) {
+			case MouseEvent.PRESS:
+				type = InputQueue.PRESS;
+				break;
+			case MouseEvent.RELEASE:
+				type = InputQueue.RELEASE;
+				break;
+			case MouseEvent.DRAG:
+				type = InputQueue.DRAG;
+				break;
+			}
+			
+			if (type != 0) {
+				MouseEvent me = (MouseEvent) pe;
+				view.getInputQueue().offer(type, me.getX(), me.getY(), System.nanoTime());
+				FrameScheduler scheduler = frames;
+				if (scheduler != null)
+					scheduler.touched(type);
+			}
 		}
-		return false;
+		super.postEvent(pe);
 	}
 
 }
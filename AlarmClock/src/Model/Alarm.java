@@ -6,29 +6,46 @@ import java.time.LocalTime;
 /**
  * 
  * @author Brandon Blaschke
- * Represents an alarm for an alarm clock.
+ * Represents an alarm for an alarm clock. An Alarm never changes, changing an alarm
+ * makes a new one, so it can be read from any thread.
  */
-public class Alarm implements Serializable{
-
+public final class Alarm implements Serializable{
+	
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
-
+	
 	/**
 	 * Number of the alarm.
 	 */
-	public int number;
+	public final int number;
 	
 	/**
 	 * Time of day that the alarm is suppose to go off.
 	 */
-	public LocalTime time;
+	public final LocalTime time;
 	
 	/**
 	 * Should the alarm ring when the clock reaches its given time.
 	 */
-	public boolean isActive;
+	public final boolean isActive;
+	
+	/**
+	 * Name of the sound the alarm plays, null for the default sound.
+	 */
+	public final String sound;
+	
+	/**
+	 * Version of the last change to the alarm, in milliseconds from the clock that made
+	 * it. 0 if it was never changed.
+	 */
+	public final long version;
+	
+	/**
+	 * Node of the clock that made the last change.
+	 */
+	public final long writer;
 	
 	/**
 	 * Creates an Alarm Object
@@ -36,8 +53,80 @@ public class Alarm implements Serializable{
 	 * @param wakeTime Time for the alarm to wake up
 	 */
 	public Alarm(int numberOfAlarm, LocalTime wakeTime) {
+		this(numberOfAlarm, wakeTime, false, 0, 0);
+	}
+	
+	/**
+	 * Creates an Alarm Object
+	 * @param numberOfAlarm Alarm number.
+	 * @param wakeTime Time for the alarm to wake up
+	 * @param active True if the alarm should ring.
+	 * @param version Version of the last change.
+	 * @param writer Node of the clock that made the last change.
+	 */
+	public Alarm(int numberOfAlarm, LocalTime wakeTime, boolean active, long version, long writer) {
+		this(numberOfAlarm, wakeTime, active, null, version, writer);
+	}
+	
+	/**
+	 * Creates an Alarm Object
+	 * @param numberOfAlarm Alarm number.
+	 * @param wakeTime Time for the alarm to wake up
+	 * @param active True if the alarm should ring.
+	 * @param sound Name of the sound to play, null for the default sound.
+	 * @param version Version of the last change.
+	 * @param writer Node of the clock that made the last change.
+	 */
+	public Alarm(int numberOfAlarm, LocalTime wakeTime, boolean active, String sound, long version, long writer) {
 		number = numberOfAlarm;
 		time = wakeTime;
-		isActive = false;
+		isActive = active;
+		this.sound = sound;
+		this.version = version;
+		this.writer = writer;
+	}
+	
+	/**
+	 * Copy of the alarm set to another time.
+	 * @param newTime New time for the alarm.
+	 * @param newVersion Version of the change.
+	 * @param newWriter Node of the clock making the change.
+	 * @return Changed alarm.
+	 */
+	public Alarm withTime(LocalTime newTime, long newVersion, long newWriter) {
+		return new Alarm(number, newTime, isActive, sound, newVersion, newWriter);
+	}
+	
+	/**
+	 * Copy of the alarm turned on or off.
+	 * @param active True if the alarm should ring.
+	 * @param newVersion Version of the change.
+	 * @param newWriter Node of the clock making the change.
+	 * @return Changed alarm.
+	 */
+	public Alarm withActive(boolean active, long newVersion, long newWriter) {
+		return new Alarm(number, time, active, sound, newVersion, newWriter);
+	}
+	
+	/**
+	 * Copy of the alarm playing another sound.
+	 * @param newSound Name of the sound to play, null for the default sound.
+	 * @param newVersion Version of the change.
+	 * @param newWriter Node of the clock making the change.
+	 * @return Changed alarm.
+	 */
+	public Alarm withSound(String newSound, long newVersion, long newWriter) {
+		return new Alarm(number, time, isActive, newSound, newVersion, newWriter);
+	}
+	
+	/**
+	 * Check if a change is newer than the last change to this alarm. The later version
+	 * wins and the higher node breaks a tie, so every clock picks the same change.
+	 * @param otherVersion Version of the change.
+	 * @param otherWriter Node of the clock that made the change.
+	 * @return True if the change is newer.
+	 */
+	public boolean isOlderThan(long otherVersion, long otherWriter) {
+		return version < otherVersion || (version == otherVersion && writer < otherWriter);
 	}
 }
@@ -0,0 +1,19 @@
+package Model;
+
+/**
+ * @author Brandon Blaschke
+ * Told about every alarm and snooze that fires.
+ */
+public interface AlarmListener {
+	
+	/**
+	 * An alarm went off.
+	 * @param alarm Alarm that went off.
+	 */
+	void alarmFired(Alarm alarm);
+	
+	/**
+	 * The snooze ran out and the alarm went off again.
+	 */
+	void snoozeFired();
+}
@@ -0,0 +1,474 @@
+package Model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import Util.DaemonThreadFactory;
+import Util.Log;
+
+/**
+ * @author Brandon Blaschke
+ * Shares the alarms with the other clocks on the network over UDP multicast. A change
+ * made on this clock is sent right away as a message holding only that alarm. Every
+ * clock also announces the version of each of its alarms twice a second, which is how
+ * clocks find each other, and a clock that hears an older version answers with its
+ * newer alarm, so a lost message or a clock that was off catches up within a second.
+ * When two clocks change the same alarm the later change wins on every clock.
+ *
+ * Off unless started with -Dalarmclock.replication=true. The group, port and network
+ * interface can be set with -Dalarmclock.replication.group, .port and .interface.
+ */
+public class AlarmReplicator {
+	
+	/**
+	 * Log for network errors.
+	 */
+	private static final Log LOG = Log.site("AlarmReplicator");
+	
+	/**
+	 * Multicast group joined unless set with -Dalarmclock.replication.group.
+	 */
+	public static final String DEFAULT_GROUP = "239.255.77.77";
+	
+	/**
+	 * Port used unless set with -Dalarmclock.replication.port.
+	 */
+	public static final int DEFAULT_PORT = 47474;
+	
+	/**
+	 * Time between announcements.
+	 */
+	private static final long ANNOUNCE_MILLIS = 500;
+	
+	/**
+	 * Time after its last message a clock is no longer counted as a peer.
+	 */
+	private static final long PEER_TIMEOUT_MILLIS = 5000;
+	
+	/**
+	 * Marks the start of a message, "ALRP".
+	 */
+	private static final int MAGIC = 0x414C5250;
+	
+	/**
+	 * Version of the message format.
+	 */
+	private static final int PROTOCOL = 1;
+	
+	/**
+	 * Message types.
+	 */
+	private static final int ALARM = 1;
+	private static final int ANNOUNCE = 2;
+	
+	/**
+	 * Largest message.
+	 */
+	private static final int MAX_MESSAGE = 8192;
+	
+	/**
+	 * Most alarms in one announcement, more are split over several. Each alarm takes 20
+	 * bytes after the 14 byte header, the count and the range of alarm numbers covered.
+	 */
+	private static final int ANNOUNCED_ALARMS = (MAX_MESSAGE - 14 - 2 - 8) / 20;
+	
+	/**
+	 * Model whose alarms are shared.
+	 */
+	private ClockModel clockModel;
+	
+	/**
+	 * Multicast group, null if replication is off.
+	 */
+	private String group;
+	
+	/**
+	 * Port of the group.
+	 */
+	private int port;
+	
+	/**
+	 * Name of the network interface to use, null for the default.
+	 */
+	private String interfaceName;
+	
+	/**
+	 * Address of the group.
+	 */
+	private InetSocketAddress groupAddress;
+	
+	/**
+	 * Socket sending and receiving the messages, null until started.
+	 */
+	private volatile MulticastSocket socket;
+	
+	/**
+	 * Sends the messages and announcements.
+	 */
+	private ScheduledExecutorService sender;
+	
+	/**
+	 * Sends the changes made on this clock, added to the model while started.
+	 */
+	private final ModelListener changeSender;
+	
+	/**
+	 * Version of each alarm last sent as a change, by alarm number. Only used while the
+	 * model is locked.
+	 */
+	private HashMap<Integer, Long> sentVersions;
+	
+	/**
+	 * When each alarm was last sent to correct an older announcement, by alarm number, so
+	 * a burst of announcements gets one answer.
+	 */
+	private ConcurrentHashMap<Integer, Long> answered;
+	
+	/**
+	 * When each other clock was last heard from, by node.
+	 */
+	private ConcurrentHashMap<Long, Long> peers;
+	
+	/**
+	 * Create an AlarmReplicator set up from the system properties.
+	 * @param theModel Model whose alarms are shared.
+	 */
+	public AlarmReplicator(ClockModel theModel) {
+		this(theModel, Boolean.getBoolean("alarmclock.replication")
+				? System.getProperty("alarmclock.replication.group", DEFAULT_GROUP) : null,
+				Integer.getInteger("alarmclock.replication.port", DEFAULT_PORT),
+				System.getProperty("alarmclock.replication.interface"));
+	}
+	
+	/**
+	 * Create an AlarmReplicator.
+	 * @param theModel Model whose alarms are shared.
+	 * @param group Multicast group, null to leave replication off.
+	 * @param port Port of the group.
+	 * @param interfaceName Network interface to use, e.g. "lo" to try several clocks on
+	 * one machine, null for the default.
+	 */
+	public AlarmReplicator(ClockModel theModel, String group, int port, String interfaceName) {
+		clockModel = theModel;
+		this.group = group;
+		this.port = port;
+		this.interfaceName = interfaceName;
+		sentVersions = new HashMap<Integer, Long>();
+		answered = new ConcurrentHashMap<Integer, Long>();
+		peers = new ConcurrentHashMap<Long, Long>();
+		changeSender = new ModelListener() {
+			@Override
+			public void modelChanged() {
+				sendChanges();
+			}
+		};
+	}
+	
+	/**
+	 * Join the group and start sharing the alarms. Does nothing if already started or
+	 * replication is off.
+	 * @return True if the alarms are being shared.
+	 */
+	public synchronized boolean start() {
+		if (socket != null)
+			return true;
+		if (group == null)
+			return false;
+		
+		try {
+			groupAddress = new InetSocketAddress(InetAddress.getByName(group), port);
+			NetworkInterface networkInterface = null;
+			if (interfaceName != null) {
+				networkInterface = NetworkInterface.getByName(interfaceName);
+				if (networkInterface == null)
+					throw new SocketException("No network interface " + interfaceName);
+			}
+			
+			socket = new MulticastSocket(port);
+			socket.setTimeToLive(1);
+			// False turns loopback on, so clocks on the same machine hear each other.
+			socket.setLoopbackMode(false);
+			if (networkInterface != null)
+				socket.setNetworkInterface(networkInterface);
+			socket.joinGroup(groupAddress, networkInterface);
+		} catch (IOException e) {
+			LOG.error("Couldn't join the multicast group", e);
+			if (socket != null)
+				socket.close();
+			socket = null;
+			return false;
+		}
+		
+		sender = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("replication-send"));
+		clockModel.addModelListener(changeSender);
+		sender.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				announce();
+			}
+		}, 0, ANNOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+		
+		new DaemonThreadFactory("replication-receive").newThread(new Runnable() {
+			@Override
+			public void run() {
+				receive();
+			}
+		}).start();
+		return true;
+	}
+	
+	/**
+	 * Leave the group and stop sharing the alarms.
+	 */
+	public synchronized void stop() {
+		if (socket == null)
+			return;
+		clockModel.removeModelListener(changeSender);
+		sender.shutdownNow();
+		socket.close();
+		socket = null;
+	}
+	
+	/**
+	 * Number of other clocks heard from lately.
+	 * @return Number of peers.
+	 */
+	public int getPeerCount() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (long heard : peers.values()) {
+			if (now - heard < PEER_TIMEOUT_MILLIS)
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Send each alarm changed on this clock since it was last sent. Called while the
+	 * model is locked, the messages are sent on the sender thread.
+	 */
+	private void sendChanges() {
+		if (socket == null)
+			return;
+		long node = clockModel.getNode();
+		for (Alarm alarm : clockModel.getAlarms()) {
+			Long sent = sentVersions.get(alarm.number);
+			if (alarm.writer == node && (sent == null || sent < alarm.version)) {
+				sentVersions.put(alarm.number, alarm.version);
+				send(alarmMessage(node, alarm));
+			}
+		}
+	}
+	
+	/**
+	 * Announce the version of every alarm, in as many messages as it takes. Each message
+	 * gives the range of alarm numbers it covers, so an alarm is only taken as missing
+	 * from the clock announcing when it falls in the range.
+	 */
+	private void announce() {
+		List<Alarm> alarms = new ArrayList<Alarm>(clockModel.getAlarms());
+		Collections.sort(alarms, new Comparator<Alarm>() {
+			@Override
+			public int compare(Alarm a, Alarm b) {
+				return Integer.compare(a.number, b.number);
+			}
+		});
+		
+		long node = clockModel.getNode();
+		int from = 0;
+		do {
+			int to = Math.min(alarms.size(), from + ANNOUNCED_ALARMS);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = header(bytes, ANNOUNCE, node);
+			try {
+				out.writeShort(to - from);
+				for (Alarm alarm : alarms.subList(from, to)) {
+					out.writeInt(alarm.number);
+					out.writeLong(alarm.version);
+					out.writeLong(alarm.writer);
+				}
+				// Written after the alarms so clocks from before the range still read them.
+				out.writeInt(from == 0 ? Integer.MIN_VALUE : alarms.get(from).number);
+				out.writeInt(to == alarms.size() ? Integer.MAX_VALUE : alarms.get(to - 1).number);
+			} catch (IOException e) {
+				// Writing to memory doesn't fail.
+				throw new IllegalStateException(e);
+			}
+			sendNow(bytes.toByteArray());
+			from = to;
+		} while (from < alarms.size());
+	}
+	
+	/**
+	 * Message holding one alarm.
+	 * @param node Node of this clock.
+	 * @param alarm Alarm to send.
+	 * @return Encoded message.
+	 */
+	private static byte[] alarmMessage(long node, Alarm alarm) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+		DataOutputStream out = header(bytes, ALARM, node);
+		try {
+			out.writeInt(alarm.number);
+			out.writeInt(alarm.time.toSecondOfDay());
+			out.writeBoolean(alarm.isActive);
+			out.writeLong(alarm.version);
+			out.writeLong(alarm.writer);
+			out.writeUTF(alarm.sound == null ? "" : alarm.sound);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Start a message.
+	 * @param bytes Where the message is written.
+	 * @param type Message type.
+	 * @param node Node of this clock.
+	 * @return Stream to write the rest of the message to.
+	 */
+	private static DataOutputStream header(ByteArrayOutputStream bytes, int type, long node) {
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(PROTOCOL);
+			out.writeByte(type);
+			out.writeLong(node);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return out;
+	}
+	
+	/**
+	 * Send a message on the sender thread.
+	 * @param message Encoded message.
+	 */
+	private void send(final byte[] message) {
+		try {
+			sender.execute(new Runnable() {
+				@Override
+				public void run() {
+					sendNow(message);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Stopped.
+		}
+	}
+	
+	/**
+	 * Send a message to the group.
+	 * @param message Encoded message.
+	 */
+	private void sendNow(byte[] message) {
+		MulticastSocket s = socket;
+		if (s == null)
+			return;
+		try {
+			s.send(new DatagramPacket(message, message.length, groupAddress));
+		} catch (IOException e) {
+			// Dropped like any other lost message, the next announcement repairs it.
+		}
+	}
+	
+	/**
+	 * Receive messages until stopped.
+	 */
+	private void receive() {
+		byte[] buffer = new byte[MAX_MESSAGE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (true) {
+			MulticastSocket s = socket;
+			if (s == null)
+				return;
+			try {
+				packet.setLength(buffer.length);
+				s.receive(packet);
+				handle(new DataInputStream(new ByteArrayInputStream(buffer, 0, packet.getLength())));
+			} catch (SocketException e) {
+				// Closed by stop().
+				return;
+			} catch (IOException | RuntimeException e) {
+				// A damaged or foreign message, ignore it.
+			}
+		}
+	}
+	
+	/**
+	 * Handle a message from the group.
+	 * @param in Message.
+	 * @throws IOException If the message is cut short.
+	 */
+	private void handle(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readByte() != PROTOCOL)
+			return;
+		int type = in.readByte();
+		long from = in.readLong();
+		long node = clockModel.getNode();
+		if (from == node)
+			return;
+		peers.put(from, System.currentTimeMillis());
+		
+		if (type == ALARM) {
+			int number = in.readInt();
+			LocalTime time = LocalTime.ofSecondOfDay(in.readInt());
+			boolean active = in.readBoolean();
+			long version = in.readLong();
+			long writer = in.readLong();
+			// Clocks from before alarms had sounds don't send one.
+			String sound = in.available() > 0 ? in.readUTF() : "";
+			clockModel.mergeAlarm(number, time, active, sound.isEmpty() ? null : sound, version, writer);
+		} else if (type == ANNOUNCE) {
+			Map<Integer, Alarm> theirs = new HashMap<Integer, Alarm>();
+			int count = in.readUnsignedShort();
+			for (int i = 0; i < count; i++) {
+				Alarm alarm = new Alarm(in.readInt(), null, false, in.readLong(), in.readLong());
+				theirs.put(alarm.number, alarm);
+			}
+			// Clocks from before announcements were split cover every alarm in one.
+			int lowest = Integer.MIN_VALUE;
+			int highest = Integer.MAX_VALUE;
+			if (in.available() >= 8) {
+				lowest = in.readInt();
+				highest = in.readInt();
+			}
+			
+			long now = System.currentTimeMillis();
+			for (Alarm ours : clockModel.getAlarms()) {
+				if (ours.number < lowest || ours.number > highest)
+					continue;
+				Alarm their = theirs.get(ours.number);
+				if (ours.version == 0 || (their != null && !their.isOlderThan(ours.version, ours.writer)))
+					continue;
+				Long last = answered.get(ours.number);
+				if (last != null && now - last < ANNOUNCE_MILLIS / 2)
+					continue;
+				answered.put(ours.number, now);
+				send(alarmMessage(node, ours));
+			}
+		}
+	}
+}
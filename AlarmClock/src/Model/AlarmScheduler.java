@@ -0,0 +1,139 @@
+package Model;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * @author Brandon Blaschke
+ * Thread that sleeps until the next alarm or snooze is due and then fires it,
+ * independent of how fast the screen is being drawn. The audio is armed a little
+ * before each alarm so it can start as soon as the alarm is due.
+ */
+class AlarmScheduler implements Runnable {
+	
+	/**
+	 * Longest time to sleep in one go, so a change to the system clock is noticed.
+	 */
+	private static final long MAX_SLEEP_MILLIS = 60 * 1000;
+	
+	/**
+	 * How long before an alarm the audio is armed.
+	 */
+	private static final Duration ARM_LEAD = Duration.ofSeconds(2);
+	
+	/**
+	 * Model that owns the alarms.
+	 */
+	private ClockModel clockModel;
+	
+	/**
+	 * Lock that the scheduler waits on.
+	 */
+	private final Object lock = new Object();
+	
+	/**
+	 * True if the alarms changed while sleeping and the next due time must be recomputed.
+	 */
+	private boolean rescheduled;
+	
+	/**
+	 * Thread the scheduler runs on.
+	 */
+	private Thread thread;
+	
+	/**
+	 * True while the scheduler should keep running.
+	 */
+	private volatile boolean running;
+	
+	/**
+	 * Create an AlarmScheduler.
+	 * @param theModel Model that owns the alarms.
+	 */
+	AlarmScheduler(ClockModel theModel) {
+		clockModel = theModel;
+		rescheduled = false;
+		running = false;
+	}
+	
+	/**
+	 * Start the scheduler thread.
+	 */
+	void start() {
+		running = true;
+		thread = new Thread(this, "alarm-scheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stop the scheduler thread.
+	 */
+	void stop() {
+		running = false;
+		reschedule();
+	}
+	
+	/**
+	 * Wake the scheduler so it recomputes the next due time. Call after an alarm or snooze changes.
+	 */
+	void reschedule() {
+		synchronized (lock) {
+			rescheduled = true;
+			lock.notifyAll();
+		}
+	}
+	
+	@Override
+	public void run() {
+		while (running) {
+			Instant due = clockModel.nextDueTime();
+			
+			if (due == null || clockModel.instant().isBefore(due.minus(ARM_LEAD))) {
+				// Nothing coming up soon, sleep until it is time to arm.
+				clockModel.disarmAudio();
+				sleepUntil(due == null ? null : due.minus(ARM_LEAD));
+				continue;
+			}
+			
+			clockModel.armAudio();
+			if (sleepUntil(due))
+				clockModel.checkAlarm();
+		}
+	}
+	
+	/**
+	 * Sleep until the given time has been reached.
+	 * @param due Time to wake up at, null to sleep until rescheduled.
+	 * @return True if the due time was reached, false if woken early by a reschedule.
+	 */
+	private boolean sleepUntil(Instant due) {
+		synchronized (lock) {
+			while (running && !rescheduled) {
+				long wait = MAX_SLEEP_MILLIS;
+				if (due != null) {
+					wait = Duration.between(clockModel.instant(), due).toMillis();
+					if (wait < 0) {
+						return true;
+					}
+					// Sleep at least a millisecond so we never spin.
+					wait = Math.max(1, Math.min(wait + 1, MAX_SLEEP_MILLIS));
+				}
+				
+				try {
+					lock.wait(wait);
+				} catch (InterruptedException e) {
+					running = false;
+					return false;
+				}
+				
+				// Woke up after the cap, check so a change of the system clock is caught up on.
+				if (due == null || wait == MAX_SLEEP_MILLIS) {
+					return due != null && !clockModel.instant().isBefore(due);
+				}
+			}
+			rescheduled = false;
+			return false;
+		}
+	}
+}
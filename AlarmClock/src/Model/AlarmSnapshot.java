@@ -0,0 +1,111 @@
+package Model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author Brandon Blaschke
+ * The alarms at one point in time, keyed by their number. A snapshot never changes, a
+ * change makes a new snapshot with the next version, so any thread can read one without
+ * locking.
+ */
+public final class AlarmSnapshot {
+	
+	/**
+	 * Number of changes made before this snapshot.
+	 */
+	private final long version;
+	
+	/**
+	 * Alarms by their number.
+	 */
+	private final HashMap<Integer, Alarm> byNumber;
+	
+	/**
+	 * Read only list of the alarms in the order they were added.
+	 */
+	private final List<Alarm> ordered;
+	
+	/**
+	 * Create the first snapshot of the alarms.
+	 * @param alarms Alarms in order, a later alarm replaces an earlier one with the same number.
+	 */
+	public AlarmSnapshot(List<Alarm> alarms) {
+		this(0, alarms);
+	}
+	
+	/**
+	 * Create a snapshot.
+	 * @param version Number of changes made before this snapshot.
+	 * @param alarms Alarms in order, a later alarm replaces an earlier one with the same number.
+	 */
+	private AlarmSnapshot(long version, List<Alarm> alarms) {
+		this.version = version;
+		byNumber = new HashMap<Integer, Alarm>();
+		ArrayList<Alarm> list = new ArrayList<Alarm>(alarms.size());
+		for (Alarm alarm : alarms) {
+			Alarm old = byNumber.put(alarm.number, alarm);
+			if (old != null) {
+				list.set(list.indexOf(old), alarm);
+			} else {
+				list.add(alarm);
+			}
+		}
+		ordered = Collections.unmodifiableList(list);
+	}
+	
+	/**
+	 * Snapshot with one alarm added or replaced by the alarm with the same number.
+	 * @param alarm Alarm that changed.
+	 * @return Next snapshot.
+	 */
+	public AlarmSnapshot with(Alarm alarm) {
+		ArrayList<Alarm> list = new ArrayList<Alarm>(ordered);
+		list.add(alarm);
+		return new AlarmSnapshot(version + 1, list);
+	}
+	
+	/**
+	 * Snapshot with every alarm replaced.
+	 * @param alarms New alarms.
+	 * @return Next snapshot.
+	 */
+	public AlarmSnapshot withAll(List<Alarm> alarms) {
+		return new AlarmSnapshot(version + 1, alarms);
+	}
+	
+	/**
+	 * Number of changes made before this snapshot, later snapshots have higher versions.
+	 * @return Version of the snapshot.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Get an alarm by its number.
+	 * @param number Number of the alarm.
+	 * @return The alarm, or null if it doesn't exist.
+	 */
+	public Alarm get(int number) {
+		return byNumber.get(number);
+	}
+	
+	/**
+	 * Alarms in the order they were added.
+	 * @return Read only list of alarms.
+	 */
+	public List<Alarm> getAlarms() {
+		return ordered;
+	}
+	
+	/**
+	 * Number of alarms.
+	 * @return Number of alarms.
+	 */
+	public int size() {
+		return ordered.size();
+	}
+}
@@ -0,0 +1,334 @@
+package Model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import Util.DaemonThreadFactory;
+import Util.Log;
+import Util.Metrics;
+
+/**
+ * @author Brandon Blaschke
+ * Saves the alarms to disk in a small binary format. Saves are written on a background
+ * thread a short time after they are asked for, so a burst of changes becomes one write.
+ * The file is replaced by writing a temporary file, syncing it and renaming it over the
+ * old one, so a crash never leaves a half written file in place.
+ */
+public class AlarmStore {
+	
+	/**
+	 * Log for files that couldn't be read or written.
+	 */
+	private static final Log LOG = Log.site("AlarmStore");
+	
+	/**
+	 * Marks the start of an alarm file, "ALRM".
+	 */
+	private static final int MAGIC = 0x414C524D;
+	
+	/**
+	 * Version of the file format. Version 2 added the version and writer of each alarm's
+	 * last change and version 3 the name of its sound, older files are still read.
+	 */
+	private static final int VERSION = 3;
+	
+	/**
+	 * Bytes per alarm in each version of the file format. From version 3 each alarm is
+	 * followed by the name of its sound.
+	 */
+	private static final int ALARM_BYTES_V1 = 9;
+	private static final int ALARM_BYTES = 25;
+	
+	/**
+	 * How long to wait for more changes before writing.
+	 */
+	private static final long COALESCE_MILLIS = 500;
+	
+	/**
+	 * Longest wait between tries at writing a save that failed, the wait doubling up to it.
+	 */
+	private static final long MAX_RETRY_MILLIS = 60000;
+	
+	/**
+	 * File the alarms are saved to.
+	 */
+	private File file;
+	
+	/**
+	 * Temporary file written before it is renamed over the alarm file.
+	 */
+	private File tempFile;
+	
+	/**
+	 * File written by older versions with Java serialization, read if there is no alarm file.
+	 */
+	private File legacyFile;
+	
+	/**
+	 * Encoded alarms waiting to be written, null if nothing is waiting.
+	 */
+	private AtomicReference<byte[]> pending;
+	
+	/**
+	 * Thread that writes the file.
+	 */
+	private ScheduledExecutorService writer;
+	
+	/**
+	 * Number of times the file was written.
+	 */
+	private volatile long writes;
+	
+	/**
+	 * Wait before the next try after a failed write, 0 when the last write worked.
+	 */
+	private long retryMillis;
+	
+	/**
+	 * Create an AlarmStore.
+	 * @param file File the alarms are saved to.
+	 * @param legacyFile File written by older versions, may be null.
+	 */
+	public AlarmStore(File file, File legacyFile) {
+		this.file = file;
+		this.legacyFile = legacyFile;
+		tempFile = new File(file.getPath() + ".tmp");
+		pending = new AtomicReference<byte[]>();
+		writer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("alarm-store"));
+	}
+	
+	/**
+	 * Save the alarms. The alarms are encoded right away and written in the background.
+	 * @param alarms Alarms to save.
+	 */
+	public void save(List<Alarm> alarms) {
+		byte[] data = encode(alarms);
+		if (pending.getAndSet(data) == null)
+			scheduleFlush(COALESCE_MILLIS);
+	}
+	
+	/**
+	 * Write any waiting save now, on the calling thread. If the write fails the save is
+	 * put back and tried again later, unless a newer save has replaced it.
+	 */
+	public synchronized void flush() {
+		byte[] data = pending.getAndSet(null);
+		if (data == null)
+			return;
+		
+		try {
+			write(data);
+			retryMillis = 0;
+		} catch (IOException e) {
+			retryMillis = Math.min(MAX_RETRY_MILLIS, Math.max(COALESCE_MILLIS, retryMillis * 2));
+			LOG.error("Couldn't save the alarms to " + file + ", trying again in " + retryMillis + "ms", e);
+			// A newer save already has a flush scheduled.
+			if (pending.compareAndSet(null, data))
+				scheduleFlush(retryMillis);
+		}
+	}
+	
+	/**
+	 * Flush on the writer thread after a delay.
+	 * @param delayMillis Time to wait.
+	 */
+	private void scheduleFlush(long delayMillis) {
+		writer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Number of times the file was written.
+	 * @return Number of writes.
+	 */
+	public long getWrites() {
+		return writes;
+	}
+	
+	/**
+	 * Read the saved alarms. If the alarm file is damaged a fully written temporary file
+	 * is used, then the file from older versions.
+	 * @return Saved alarms, or null if there are none that can be read.
+	 */
+	public List<Alarm> load() {
+		List<Alarm> alarms = read(file);
+		if (alarms == null)
+			alarms = read(tempFile);
+		if (alarms == null && legacyFile != null)
+			alarms = readLegacy(legacyFile);
+		return alarms;
+	}
+	
+	/**
+	 * Encode alarms in the file format.
+	 * @param alarms Alarms to encode.
+	 * @return Encoded alarms with a checksum at the end.
+	 */
+	static byte[] encode(List<Alarm> alarms) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(18 + alarms.size() * (ALARM_BYTES + 16));
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(alarms.size());
+			for (Alarm alarm : alarms) {
+				out.writeInt(alarm.number);
+				out.writeInt(alarm.time.toSecondOfDay());
+				out.writeBoolean(alarm.isActive);
+				out.writeLong(alarm.version);
+				out.writeLong(alarm.writer);
+				out.writeUTF(alarm.sound == null ? "" : alarm.sound);
+			}
+			
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			out.writeLong(crc.getValue());
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// Writing to memory doesn't fail.
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Decode alarms from the file format.
+	 * @param data Encoded alarms.
+	 * @return Decoded alarms, or null if the data is damaged or in an unknown format.
+	 */
+	static List<Alarm> decode(byte[] data) {
+		if (data.length < 8)
+			return null;
+		
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - 8);
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if (in.readInt() != MAGIC)
+				return null;
+			int version = in.readShort();
+			if (version < 1 || version > VERSION)
+				return null;
+			
+			int count = in.readInt();
+			int alarmBytes = version == 1 ? ALARM_BYTES_V1 : ALARM_BYTES;
+			if (count < 0 || (long) count * alarmBytes + 18 > data.length
+					|| (version < 3 && (long) count * alarmBytes + 18 != data.length))
+				return null;
+			
+			ArrayList<Alarm> alarms = new ArrayList<Alarm>(count);
+			for (int i = 0; i < count; i++) {
+				int number = in.readInt();
+				LocalTime time = LocalTime.ofSecondOfDay(in.readInt());
+				boolean active = in.readBoolean();
+				if (version == 1) {
+					alarms.add(new Alarm(number, time, active, 0, 0));
+					continue;
+				}
+				long alarmVersion = in.readLong();
+				long writer = in.readLong();
+				String sound = version >= 3 ? in.readUTF() : "";
+				alarms.add(new Alarm(number, time, active, sound.isEmpty() ? null : sound, alarmVersion, writer));
+			}
+			
+			if (in.available() != 8 || in.readLong() != crc.getValue())
+				return null;
+			return alarms;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Replace the alarm file with new contents.
+	 * @param data Contents of the file.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	private void write(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		FileOutputStream out = new FileOutputStream(tempFile);
+		try {
+			out.write(data);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		// Sync the directory so the rename itself survives a power cut.
+		File dir = file.getAbsoluteFile().getParentFile();
+		try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Not every platform can sync a directory, the rename is still atomic.
+		}
+		writes++;
+		Metrics.recordSave(System.nanoTime() - start, data.length);
+	}
+	
+	/**
+	 * Read alarms from a file in the current format.
+	 * @param from File to read.
+	 * @return Alarms in the file, or null if it is missing or damaged.
+	 */
+	private List<Alarm> read(File from) {
+		if (!from.isFile())
+			return null;
+		
+		try {
+			return decode(Files.readAllBytes(from.toPath()));
+		} catch (IOException e) {
+			LOG.warn("Couldn't read " + from, e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Read alarms from a file written with Java serialization by older versions.
+	 * @param from File to read.
+	 * @return Alarms in the file, or null if it is missing or can't be read.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Alarm> readLegacy(File from) {
+		try {
+			FileInputStream fileIn = new FileInputStream(from);
+			ObjectInputStream in = new ObjectInputStream(fileIn);
+			try {
+				return (ArrayList<Alarm>) in.readObject();
+			} finally {
+				in.close();
+				fileIn.close();
+			}
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			LOG.warn("Couldn't read " + from, e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package Model;
+
+import java.util.Arrays;
+
+/**
+ * @author Brandon Blaschke
+ * The sound processing between the decoded sounds and the sound card. Each chunk every
+ * playing sound is turned into samples, given its own volume and added to the mix, then
+ * the whole mix is given the master volume, limited so it can't clip and turned back into
+ * bytes for the line. Every buffer is made once when the mixer is made, so a chunk never
+ * allocates and garbage collection can't hold up the audio.
+ *
+ * Sounds are 16 bit signed little endian, the format of SoundLibrary.FORMAT.
+ */
+class AudioMixer {
+	
+	/**
+	 * Highest level of the mix, a little under full scale.
+	 */
+	private static final float CEILING = 0.98f;
+	
+	/**
+	 * Time for the limiter to let the level back up.
+	 */
+	private static final float RELEASE_SECONDS = 0.25f;
+	
+	/**
+	 * Samples in each frame.
+	 */
+	private final int channels;
+	
+	/**
+	 * Most frames in one chunk.
+	 */
+	private final int maxFrames;
+	
+	/**
+	 * Sum of the sounds in the chunk being mixed.
+	 */
+	private final float[] mix;
+	
+	/**
+	 * Samples of the sound being added.
+	 */
+	private final float[] voice;
+	
+	/**
+	 * Volume of the whole mix.
+	 */
+	private final GainRamp master;
+	
+	/**
+	 * Keeps the mix from clipping.
+	 */
+	private final Limiter limiter;
+	
+	/**
+	 * Frames in the chunk being mixed.
+	 */
+	private int frames;
+	
+	/**
+	 * Create an AudioMixer.
+	 * @param maxFrames Most frames in one chunk.
+	 * @param channels Samples in each frame.
+	 * @param sampleRate Frames per second.
+	 */
+	AudioMixer(int maxFrames, int channels, float sampleRate) {
+		this.maxFrames = maxFrames;
+		this.channels = channels;
+		mix = new float[maxFrames * channels];
+		voice = new float[maxFrames * channels];
+		master = new GainRamp(1);
+		limiter = new Limiter(CEILING, sampleRate, RELEASE_SECONDS);
+	}
+	
+	/**
+	 * Volume of the whole mix, ramped for gradual wake alarms. Only change it from the
+	 * thread mixing.
+	 * @return Master volume.
+	 */
+	GainRamp getMaster() {
+		return master;
+	}
+	
+	/**
+	 * Start mixing a chunk of silence.
+	 * @param chunkFrames Number of frames in the chunk.
+	 */
+	void begin(int chunkFrames) {
+		frames = Math.min(chunkFrames, maxFrames);
+		Arrays.fill(mix, 0, frames * channels, 0f);
+	}
+	
+	/**
+	 * Add a sound to the chunk. A sound shorter than the chunk is treated as silent for
+	 * the rest of it.
+	 * @param pcm Bytes of the sound.
+	 * @param bytes Number of bytes, at most a chunk.
+	 * @param gain Volume of the sound, moved along one chunk.
+	 */
+	void add(byte[] pcm, int bytes, GainRamp gain) {
+		int samples = frames * channels;
+		int n = Math.min(bytes / 2, samples);
+		for (int i = 0, b = 0; i < n; i++, b += 2) {
+			voice[i] = (short) ((pcm[b] & 0xff) | (pcm[b + 1] << 8)) / 32768f;
+		}
+		Arrays.fill(voice, n, samples, 0f);
+		
+		gain.apply(voice, frames, channels);
+		for (int i = 0; i < samples; i++) {
+			mix[i] += voice[i];
+		}
+	}
+	
+	/**
+	 * Finish the chunk, applying the master volume and limiter.
+	 * @param out Array the chunk is written to as bytes.
+	 * @return Number of bytes written.
+	 */
+	int end(byte[] out) {
+		master.apply(mix, frames, channels);
+		limiter.apply(mix, frames, channels);
+		
+		int samples = frames * channels;
+		for (int i = 0, b = 0; i < samples; i++, b += 2) {
+			float s = mix[i];
+			int v = s >= 1 ? Short.MAX_VALUE : s <= -1 ? Short.MIN_VALUE : Math.round(s * 32767f);
+			out[b] = (byte) v;
+			out[b + 1] = (byte) (v >> 8);
+		}
+		return samples * 2;
+	}
+	
+	/**
+	 * Go back to full volume with the limiter let go, before the mix starts again.
+	 */
+	void reset() {
+		master.set(1);
+		limiter.reset();
+	}
+}
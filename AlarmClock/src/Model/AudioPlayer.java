@@ -1,29 +1,95 @@
 package Model;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
 import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
+import Util.LatencyHistogram;
+import Util.Log;
+import Util.Metrics;
+
 /**
  * @author Brandon Blaschke
- * Class to control and play Audio.
+ * Class to control and play Audio. The sounds come from a SoundLibrary, from memory if
+ * they are decoded and from their file otherwise. Each playing sound is a voice: a reader
+ * thread fills the voice's fixed size ring buffer from the sound, and a writer thread
+ * mixes the rings through an AudioMixer to the sound card. The rings are made with the
+ * player and reused by each voice in turn. Every sound is in the library's format, so
+ * the line is opened once whichever sound plays. Sounds loop until paused and can be
+ * played again any number of times.
+ *
+ * Pausing only asks the threads to stop and doesn't wait for them, so it is quick enough
+ * to call while holding the clock's lock. A writer started after it first waits for the
+ * old writer to finish.
+ *
+ * Sounds play at full volume at once, as they always have. A gradual wake, where the
+ * volume starts low and rises to full, is turned on by setting its time in seconds with
+ * -Dalarmclock.wake.seconds. Playing another sound while one plays mixes them. When
+ * MIX_VOICES sounds are already playing the oldest fades out as the new one fades in.
+ *
+ * Shortly before an alarm the player can be armed: the line is started and fed silence
+ * while the ring fills up, so playing is only a switch from silence to the ring.
  */
 public class AudioPlayer {
 	
 	/**
-	 * Clip of audio to play from
+	 * Log for the sound card.
+	 */
+	private static final Log LOG = Log.site("AudioPlayer");
+	
+	/**
+	 * Log for sounds that couldn't be read while playing.
+	 */
+	private static final Log READ_LOG = Log.site("AudioPlayer.read");
+	
+	/**
+	 * Most sounds mixed together.
+	 */
+	public static final int MIX_VOICES = 2;
+	
+	/**
+	 * Voices that can exist at once, room for one more to fade out while MIX_VOICES play.
 	 */
-	Clip clip; 
+	private static final int MAX_VOICES = MIX_VOICES + 1;
 	
 	/**
-	 * Audio input stream.
+	 * Size of the ring buffer between a sound and the mixer.
 	 */
-	AudioInputStream audioInputStream;
+	private static final int RING_BYTES = 64 * 1024;
+	
+	/**
+	 * Size of each read from a sound and write to the sound card.
+	 */
+	private static final int CHUNK_BYTES = 4096;
+	
+	/**
+	 * Length of audio the sound card buffers, kept short so unmuting is heard quickly.
+	 */
+	private static final float LINE_BUFFER_SECONDS = 0.05f;
+	
+	/**
+	 * Volume a gradual wake starts at, about 26 dB below full.
+	 */
+	private static final double WAKE_START_GAIN = 0.05;
+	
+	/**
+	 * Time the volume takes to rise to full unless set with -Dalarmclock.wake.seconds,
+	 * none so an alarm is as loud as it always was unless a gradual wake is asked for.
+	 */
+	private static final int DEFAULT_WAKE_SECONDS = 0;
+	
+	/**
+	 * Time a sound takes to fade in or out when sounds change while playing.
+	 */
+	private static final float CROSSFADE_SECONDS = 2f;
 	
 	/**
 	 * Status of the audio
@@ -31,48 +97,607 @@ public class AudioPlayer {
 	AudioStatus audioStatus;
 	
 	/**
-	 * Create a AudioPlayer for a single piece of audio.
-	 * @param filePath Path to file.
-	 * @throws UnsupportedAudioFileException
-	 * @throws IOException
-	 * @throws LineUnavailableException
+	 * Sounds that can be played.
 	 */
-	public AudioPlayer(String filePath) throws UnsupportedAudioFileException, IOException, LineUnavailableException
-	{
-		audioInputStream = AudioSystem.getAudioInputStream(new File(filePath).getAbsoluteFile());
-		clip = AudioSystem.getClip();
-		clip.open(audioInputStream);
-		clip.loop(Clip.LOOP_CONTINUOUSLY);
-		clip.stop();
+	private SoundLibrary library;
+	
+	/**
+	 * Format of the audio sent to the sound card.
+	 */
+	private AudioFormat format;
+	
+	/**
+	 * Line to the sound card, null until loaded.
+	 */
+	private SourceDataLine line;
+	
+	/**
+	 * Sounds playing or armed, a slot is null when free. Only play() and arm() fill a
+	 * slot, the writer thread empties it once the sound has ended or faded out.
+	 */
+	private final AtomicReferenceArray<Voice> voices;
+	
+	/**
+	 * Rings and read chunks of the voices, one set for each slot.
+	 */
+	private final VoiceBuffers[] buffers;
+	
+	/**
+	 * Mixes the voices, only used by the writer thread.
+	 */
+	private final AudioMixer mixer;
+	
+	/**
+	 * Chunk the writer thread reads each voice into.
+	 */
+	private byte[] voiceChunk;
+	
+	/**
+	 * Chunk the writer thread writes to the sound card from.
+	 */
+	private byte[] writeChunk;
+	
+	/**
+	 * Thread mixing the voices to the sound card, the last one started.
+	 */
+	private Thread writer;
+	
+	/**
+	 * True until the last writer thread started is asked to stop. Each writer has its
+	 * own, so a writer that is still finishing can't be started again by a later play.
+	 */
+	private AtomicBoolean running;
+	
+	/**
+	 * True while the writer thread feeds silence instead of the voices.
+	 */
+	private volatile boolean muted;
+	
+	/**
+	 * Wall clock time in milliseconds the current play was scheduled for.
+	 */
+	private volatile long scheduledMillis;
+	
+	/**
+	 * Zeros written to the sound card while muted.
+	 */
+	private byte[] silence;
+	
+	/**
+	 * Frames the volume takes to rise to full, 0 for full at once.
+	 */
+	private final long wakeFrames;
+	
+	/**
+	 * Frames a sound takes to fade in or out.
+	 */
+	private final long crossfadeFrames;
+	
+	/**
+	 * Time from the scheduled alarm time to the first audio written to the sound card.
+	 */
+	private LatencyHistogram fireSkew;
+	
+	/**
+	 * Create a AudioPlayer. The line isn't opened until the audio is loaded or played.
+	 * @param library Sounds that can be played.
+	 */
+	public AudioPlayer(SoundLibrary library) {
+		this.library = library;
+		format = SoundLibrary.FORMAT;
 		audioStatus = AudioStatus.STOPPED;
+		voices = new AtomicReferenceArray<Voice>(MAX_VOICES);
+		buffers = new VoiceBuffers[MAX_VOICES];
+		for (int i = 0; i < MAX_VOICES; i++) {
+			buffers[i] = new VoiceBuffers();
+		}
+		mixer = new AudioMixer(CHUNK_BYTES / format.getFrameSize(), format.getChannels(), format.getFrameRate());
+		voiceChunk = new byte[CHUNK_BYTES];
+		writeChunk = new byte[CHUNK_BYTES];
+		silence = new byte[CHUNK_BYTES];
+		wakeFrames = (long) (Math.max(0, Integer.getInteger("alarmclock.wake.seconds", DEFAULT_WAKE_SECONDS))
+				* format.getFrameRate());
+		crossfadeFrames = (long) (CROSSFADE_SECONDS * format.getFrameRate());
+		fireSkew = Metrics.FIRE_SKEW;
+	}
+	
+	/**
+	 * Open the line to the sound card so the audio is ready to play. Does nothing if it
+	 * is already loaded.
+	 * @throws LineUnavailableException
+	 */
+	public synchronized void load() throws LineUnavailableException {
+		if (line != null)
+			return;
+		
+		SourceDataLine newLine = AudioSystem.getSourceDataLine(format);
+		int frameSize = Math.max(1, format.getFrameSize());
+		int bufferFrames = Math.max(1, (int) (format.getFrameRate() * LINE_BUFFER_SECONDS));
+		newLine.open(format, Math.max(CHUNK_BYTES, bufferFrames * frameSize));
+		line = newLine;
+	}
+	
+	/**
+	 * Sounds the player plays.
+	 * @return Sound library of the player.
+	 */
+	public SoundLibrary getLibrary() {
+		return library;
 	}
 	
 	/**
-	 * Play the audio.
+	 * Play the default sound on a loop now, loading it first if it isn't loaded yet.
 	 */
 	public void play() {
-		if (audioStatus != AudioStatus.PLAYING)
-			clip.loop(Clip.LOOP_CONTINUOUSLY);
-			audioStatus = AudioStatus.PLAYING;
+		play(System.currentTimeMillis(), null);
+	}
+	
+	/**
+	 * Play a sound on a loop. If the player is armed with the same sound this only
+	 * unmutes it. If other sounds are playing it is mixed in with them, and does nothing
+	 * if the sound is already playing.
+	 * @param scheduled Wall clock time in milliseconds the audio was due to start,
+	 * used to measure how late it started.
+	 * @param name Name of the sound, null for the default sound.
+	 */
+	public synchronized void play(long scheduled, String name) {
+		String resolved = library.resolve(name);
+		if (audioStatus == AudioStatus.PLAYING) {
+			mixIn(resolved);
+			return;
+		}
+		
+		scheduledMillis = scheduled;
+		if (audioStatus == AudioStatus.ARMED) {
+			if (findVoice(resolved) < 0)
+				replaceVoices(resolved);
+		} else if (!startThreads(resolved)) {
+			return;
+		}
+		muted = false;
+		audioStatus = AudioStatus.PLAYING;
+	}
+	
+	/**
+	 * Arm the player for an alarm coming up soon. The line is started playing silence and
+	 * the ring is filled, so a following play starts the audio almost immediately.
+	 * @param name Name of the sound the alarm plays, null for the default sound.
+	 */
+	public synchronized void arm(String name) {
+		String resolved = library.resolve(name);
+		if (audioStatus == AudioStatus.PLAYING || (audioStatus == AudioStatus.ARMED && findVoice(resolved) >= 0))
+			return;
+		
+		muted = true;
+		if (audioStatus == AudioStatus.ARMED) {
+			replaceVoices(resolved);
+		} else if (startThreads(resolved)) {
+			audioStatus = AudioStatus.ARMED;
+		}
 	}
 	
 	/**
-	 * Pause the Audio.
+	 * Disarm the player if it is armed and not playing, releasing the line's threads.
 	 */
-	public void pause() {
-		if (audioStatus == AudioStatus.PLAYING && audioStatus != AudioStatus.STOPPED)
-			clip.stop();
-			audioStatus = AudioStatus.PAUSED;
+	public synchronized void disarm() {
+		if (audioStatus == AudioStatus.ARMED)
+			pause();
 	}
 	
 	/**
-	 * Stop audio and close stream.
+	 * Time from the scheduled alarm time to the first audio written to the sound card.
+	 * @return Histogram of fire skew.
 	 */
-	public void stop() {
-		if (audioStatus != AudioStatus.STOPPED) {
-			clip.stop();
-			clip.close();	
-			audioStatus = AudioStatus.STOPPED;
+	public LatencyHistogram getFireSkew() {
+		return fireSkew;
+	}
+	
+	/**
+	 * Find a voice playing a sound that isn't fading out.
+	 * @param resolved Name of the sound as resolved by the library.
+	 * @return Slot of the voice, or -1 if the sound isn't playing.
+	 */
+	private int findVoice(String resolved) {
+		for (int i = 0; i < MAX_VOICES; i++) {
+			Voice voice = voices.get(i);
+			if (voice != null && !voice.fadeOut && Objects.equals(voice.sound, resolved))
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Mix a sound in with the ones playing, fading out the oldest if MIX_VOICES are
+	 * already playing. Does nothing if the sound is already playing.
+	 * @param resolved Name of the sound as resolved by the library.
+	 */
+	private void mixIn(String resolved) {
+		if (findVoice(resolved) >= 0)
+			return;
+		
+		int playing = 0;
+		int free = -1;
+		int fading = -1;
+		Voice oldest = null;
+		for (int i = 0; i < MAX_VOICES; i++) {
+			Voice voice = voices.get(i);
+			if (voice == null) {
+				if (free < 0)
+					free = i;
+			} else if (voice.fadeOut) {
+				fading = i;
+			} else {
+				playing++;
+				if (oldest == null || voice.started < oldest.started)
+					oldest = voice;
+			}
+		}
+		
+		if (playing >= MIX_VOICES)
+			oldest.fadeOut = true;
+		if (free < 0) {
+			// Every slot is taken, cut short a sound that is already fading out.
+			Voice gone = voices.getAndSet(fading, null);
+			if (gone != null)
+				gone.close();
+			free = fading;
+		}
+		voices.set(free, new Voice(resolved, crossfadeFrames));
+	}
+	
+	/**
+	 * Stop every voice and start one for a sound, while the writer thread is muted.
+	 * @param resolved Name of the sound as resolved by the library.
+	 */
+	private void replaceVoices(String resolved) {
+		for (int i = 0; i < MAX_VOICES; i++) {
+			Voice gone = voices.getAndSet(i, null);
+			if (gone != null)
+				gone.close();
+		}
+		voices.set(0, new Voice(resolved, 0));
+	}
+	
+	/**
+	 * Take a free set of voice buffers, one whose last reader thread has finished.
+	 * @return Buffers for a new voice.
+	 */
+	private VoiceBuffers takeBuffers() {
+		for (VoiceBuffers free : buffers) {
+			if (free.taken.compareAndSet(false, true))
+				return free;
+		}
+		// Every set is held by a reader that hasn't finished yet, make one more rather than wait.
+		VoiceBuffers extra = new VoiceBuffers();
+		extra.taken.set(true);
+		return extra;
+	}
+	
+	/**
+	 * Load the audio if needed and start the writer thread with a voice for a sound.
+	 * @param resolved Name of the sound as resolved by the library.
+	 * @return True if started, false if the audio couldn't be loaded.
+	 */
+	private boolean startThreads(String resolved) {
+		try {
+			load();
+		} catch (Exception e) {
+			LOG.error("Couldn't open the sound card", e);
+			return false;
+		}
+		
+		voices.set(0, new Voice(resolved, 0));
+		final SourceDataLine out = line;
+		final AtomicBoolean run = new AtomicBoolean(true);
+		final Thread previous = writer;
+		running = run;
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// The mixer is only used by one writer at a time.
+					if (previous != null)
+						previous.join();
+				} catch (InterruptedException e) {
+					return;
+				}
+				writeLoop(out, run);
+			}
+		}, "audio-writer");
+		writer.setDaemon(true);
+		writer.setPriority(Thread.MAX_PRIORITY);
+		
+		line.start();
+		writer.start();
+		return true;
+	}
+	
+	/**
+	 * Pause the Audio. The threads are asked to stop but not waited for.
+	 */
+	public synchronized void pause() {
+		if (audioStatus != AudioStatus.PLAYING && audioStatus != AudioStatus.ARMED)
+			return;
+		
+		running.set(false);
+		for (int i = 0; i < MAX_VOICES; i++) {
+			Voice gone = voices.getAndSet(i, null);
+			if (gone != null)
+				gone.close();
+		}
+		// Stopping the line wakes the writer if it is waiting on the sound card.
+		line.stop();
+		line.flush();
+		audioStatus = AudioStatus.PAUSED;
+	}
+	
+	/**
+	 * Stop audio and close the line to the sound card. Playing again reopens it.
+	 */
+	public synchronized void stop() {
+		pause();
+		if (line != null) {
+			line.close();
+			line = null;
+		}
+		audioStatus = AudioStatus.STOPPED;
+	}
+	
+	/**
+	 * Mix the voices to the sound card until stopped. Nothing in the loop allocates.
+	 * @param out Line to the sound card.
+	 * @param run Set to false to stop this writer.
+	 */
+	private void writeLoop(SourceDataLine out, AtomicBoolean run) {
+		int frameSize = Math.max(1, format.getFrameSize());
+		int chunkFrames = CHUNK_BYTES / frameSize;
+		int chunkBytes = chunkFrames * frameSize;
+		boolean wasMuted = false;
+		boolean firstWrite = true;
+		try {
+			while (run.get()) {
+				if (muted) {
+					// Armed, keep the line running without using up the rings.
+					out.write(silence, 0, chunkBytes);
+					wasMuted = true;
+					continue;
+				}
+				
+				if (wasMuted) {
+					// Drop the silence still queued so the audio is heard right away.
+					out.flush();
+					wasMuted = false;
+				}
+				
+				if (firstWrite) {
+					mixer.reset();
+					mixer.getMaster().set(wakeFrames > 0 ? WAKE_START_GAIN : 1);
+					mixer.getMaster().rampTo(1, wakeFrames);
+				}
+				
+				mixer.begin(chunkFrames);
+				for (int i = 0; i < MAX_VOICES && run.get(); i++) {
+					Voice voice = voices.get(i);
+					if (voice != null && !mixVoice(voice, chunkBytes, frameSize)) {
+						voices.compareAndSet(i, voice, null);
+						voice.close();
+					}
+				}
+				out.write(writeChunk, 0, mixer.end(writeChunk));
+				
+				if (firstWrite) {
+					fireSkew.record(Math.max(0, System.currentTimeMillis() - scheduledMillis) * 1000);
+					firstWrite = false;
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stopping.
+		}
+	}
+	
+	/**
+	 * Add a chunk of a voice to the mix.
+	 * @param voice Voice to add.
+	 * @param chunkBytes Bytes in the chunk.
+	 * @param frameSize Bytes in each frame.
+	 * @return False if the voice has ended or faded out and its slot can be freed.
+	 * @throws InterruptedException If interrupted while waiting for the voice's ring.
+	 */
+	private boolean mixVoice(Voice voice, int chunkBytes, int frameSize) throws InterruptedException {
+		if (voice.fadeOut && !voice.fading) {
+			voice.fading = true;
+			voice.gain.rampTo(0, crossfadeFrames);
+		}
+		
+		if (voice.mixed && voice.ring.available() < chunkBytes)
+			Metrics.recordAudioUnderrun();
+		voice.mixed = true;
+		
+		int got = 0;
+		while (got < chunkBytes) {
+			int n = voice.ring.read(voice.generation, voiceChunk, got, chunkBytes - got, frameSize);
+			if (n < 0)
+				break;
+			got += n;
+		}
+		if (got == 0)
+			return false;
+		
+		mixer.add(voiceChunk, got, voice.gain);
+		return !(voice.fading && !voice.gain.isRamping());
+	}
+	
+	/**
+	 * Ring and read chunk for a voice, made with the player and reused by later voices.
+	 */
+	private static class VoiceBuffers {
+		
+		/**
+		 * Audio read from a sound waiting to be mixed.
+		 */
+		final ByteRing ring = new ByteRing(RING_BYTES);
+		
+		/**
+		 * Chunk the reader thread reads the sound into.
+		 */
+		final byte[] readChunk = new byte[CHUNK_BYTES];
+		
+		/**
+		 * True from when a voice takes the buffers until its reader thread is done with them.
+		 */
+		final AtomicBoolean taken = new AtomicBoolean();
+	}
+	
+	/**
+	 * A sound being played: its ring, the reader thread filling it from the sound and its
+	 * own volume. The reader starts when the voice is made and stops when the ring is closed.
+	 */
+	private class Voice {
+		
+		/**
+		 * Name of the sound as resolved by the library, null if there are no sounds.
+		 */
+		final String sound;
+		
+		/**
+		 * Buffers the voice took, given back when the reader thread finishes.
+		 */
+		final VoiceBuffers buffers;
+		
+		/**
+		 * Audio read from the sound waiting to be mixed.
+		 */
+		final ByteRing ring;
+		
+		/**
+		 * Generation of the ring that belongs to this voice.
+		 */
+		final int generation;
+		
+		/**
+		 * Chunk the reader thread reads the sound into.
+		 */
+		final byte[] readChunk;
+		
+		/**
+		 * Volume of the voice, only used by the writer thread once the voice is in a slot.
+		 */
+		final GainRamp gain;
+		
+		/**
+		 * System.nanoTime() the voice was made, the oldest voice fades out first.
+		 */
+		final long started;
+		
+		/**
+		 * Set to ask the writer thread to fade the voice out.
+		 */
+		volatile boolean fadeOut;
+		
+		/**
+		 * True once the writer thread has started fading the voice out.
+		 */
+		boolean fading;
+		
+		/**
+		 * True once the writer thread has mixed a chunk of the voice.
+		 */
+		boolean mixed;
+		
+		/**
+		 * Create a Voice and start reading its sound.
+		 * @param sound Name of the sound as resolved by the library.
+		 * @param fadeInFrames Frames to fade in over, 0 to start at full volume.
+		 */
+		Voice(String sound, long fadeInFrames) {
+			this.sound = sound;
+			buffers = takeBuffers();
+			ring = buffers.ring;
+			generation = ring.reset();
+			readChunk = buffers.readChunk;
+			gain = new GainRamp(fadeInFrames > 0 ? 0 : 1);
+			gain.rampTo(1, fadeInFrames);
+			started = System.nanoTime();
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						readLoop();
+					} finally {
+						buffers.taken.set(false);
+					}
+				}
+			}, "audio-reader");
+			reader.setDaemon(true);
+			reader.start();
+		}
+		
+		/**
+		 * Close the voice's ring, stopping the reader thread.
+		 */
+		void close() {
+			ring.close(generation);
+		}
+		
+		/**
+		 * Read the sound into the ring, starting over at the end, until the ring is closed.
+		 * A sound that can't be played is swapped for the default sound so the alarm still
+		 * sounds, the ring is only closed if the default sound can't be played either.
+		 */
+		private void readLoop() {
+			String playing = sound;
+			try {
+				while (true) {
+					try {
+						while (readThrough(playing)) {
+							// End of the sound, loop back to the start.
+						}
+						return;
+					} catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+						String fallback = library.getDefault();
+						if (fallback == null || fallback.equals(playing)) {
+							READ_LOG.error("Couldn't play sound " + playing, e);
+							close();
+							return;
+						}
+						READ_LOG.error("Couldn't play sound " + playing + ", playing " + fallback + " instead", e);
+						playing = fallback;
+					}
+				}
+			} catch (InterruptedException e) {
+				// Stopping.
+			}
+		}
+		
+		/**
+		 * Read a sound into the ring once from start to end.
+		 * @param name Name of the sound.
+		 * @return True at the end of the sound, false if the ring was closed first.
+		 * @throws IOException If the sound couldn't be read or has no audio.
+		 * @throws UnsupportedAudioFileException If the sound couldn't be decoded.
+		 * @throws InterruptedException If interrupted while waiting for room in the ring.
+		 */
+		private boolean readThrough(String name) throws IOException, UnsupportedAudioFileException, InterruptedException {
+			AudioInputStream in = library.open(name);
+			try {
+				long read = 0;
+				int n;
+				while ((n = in.read(readChunk, 0, readChunk.length)) >= 0) {
+					read += n;
+					if (!ring.write(generation, readChunk, 0, n))
+						return false;
+				}
+				// Looping an empty sound would never wait on the ring.
+				if (read == 0)
+					throw new IOException("Sound " + name + " has no audio");
+				return true;
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					READ_LOG.warn("Couldn't close sound " + name, e);
+				}
+			}
 		}
 	}
 }
@@ -81,5 +706,5 @@ public class AudioPlayer {
  * Enum for the current status of the audio.
  */
 enum AudioStatus {
-	PLAYING, STOPPED, PAUSED;
+	PLAYING, STOPPED, PAUSED, ARMED;
 }
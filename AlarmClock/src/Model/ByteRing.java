@@ -0,0 +1,149 @@
+package Model;
+
+/**
+ * @author Brandon Blaschke
+ * Fixed size ring buffer of bytes between one thread writing and one thread reading.
+ * Writing waits while the ring is full and reading waits while it is empty, until the
+ * ring is closed.
+ *
+ * A ring is reused by resetting it, which starts a new generation. Every read, write and
+ * close names the generation it is for, so a thread still holding an older generation
+ * sees the ring as closed and can't touch the bytes of the new one.
+ */
+class ByteRing {
+	
+	/**
+	 * Bytes in the ring.
+	 */
+	private final byte[] buffer;
+	
+	/**
+	 * Index the next byte is read from.
+	 */
+	private int readPos;
+	
+	/**
+	 * Index the next byte is written to.
+	 */
+	private int writePos;
+	
+	/**
+	 * Number of bytes waiting to be read.
+	 */
+	private int count;
+	
+	/**
+	 * True once closed, waiting reads and writes then return.
+	 */
+	private boolean closed;
+	
+	/**
+	 * Generation the ring is on, counted up by each reset.
+	 */
+	private int generation;
+	
+	/**
+	 * Create an empty ByteRing.
+	 * @param capacity Number of bytes the ring holds.
+	 */
+	ByteRing(int capacity) {
+		buffer = new byte[capacity];
+	}
+	
+	/**
+	 * Write bytes, waiting for space as needed.
+	 * @param gen Generation being written.
+	 * @param src Bytes to write.
+	 * @param off Offset of the first byte.
+	 * @param len Number of bytes.
+	 * @return True if every byte was written, false if the generation was closed first.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	synchronized boolean write(int gen, byte[] src, int off, int len) throws InterruptedException {
+		while (len > 0) {
+			while (count == buffer.length && !isClosed(gen)) {
+				wait();
+			}
+			if (isClosed(gen))
+				return false;
+			
+			int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+			System.arraycopy(src, off, buffer, writePos, n);
+			writePos = (writePos + n) % buffer.length;
+			count += n;
+			off += n;
+			len -= n;
+			notifyAll();
+		}
+		return true;
+	}
+	
+	/**
+	 * Read bytes, waiting until at least one block is available.
+	 * @param gen Generation being read.
+	 * @param dst Array to read into.
+	 * @param off Offset to read into.
+	 * @param len Most bytes to read.
+	 * @param block Number of bytes read is a multiple of this, such as an audio frame.
+	 * @return Number of bytes read, or -1 if the generation was closed.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	synchronized int read(int gen, byte[] dst, int off, int len, int block) throws InterruptedException {
+		while (count < block && !isClosed(gen)) {
+			wait();
+		}
+		if (isClosed(gen))
+			return -1;
+		
+		int n = Math.min(len, count);
+		n -= n % block;
+		int first = Math.min(n, buffer.length - readPos);
+		System.arraycopy(buffer, readPos, dst, off, first);
+		System.arraycopy(buffer, 0, dst, off + first, n - first);
+		readPos = (readPos + n) % buffer.length;
+		count -= n;
+		notifyAll();
+		return n;
+	}
+	
+	/**
+	 * Number of bytes waiting to be read.
+	 * @return Bytes available.
+	 */
+	synchronized int available() {
+		return count;
+	}
+	
+	/**
+	 * Checks if a generation has been closed, either by close or by a reset since.
+	 * @param gen Generation to check.
+	 * @return True if closed.
+	 */
+	private boolean isClosed(int gen) {
+		return closed || gen != generation;
+	}
+	
+	/**
+	 * Close a generation of the ring, waking any thread waiting on it. Does nothing if
+	 * the ring has been reset since.
+	 * @param gen Generation to close.
+	 */
+	synchronized void close(int gen) {
+		if (gen == generation)
+			closed = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Empty the ring and open it again as a new generation, closing the old one.
+	 * @return The new generation.
+	 */
+	synchronized int reset() {
+		readPos = 0;
+		writePos = 0;
+		count = 0;
+		closed = false;
+		notifyAll();
+		return ++generation;
+	}
+}
@@ -0,0 +1,15 @@
+package Model;
+
+/**
+ * @author Brandon Blaschke
+ * Told when a change to the system clock has finished. Called on a background thread.
+ */
+public interface ClockChangeListener {
+	
+	/**
+	 * The system clock change finished.
+	 * @param succeeded True if the clock was changed.
+	 * @param output What the command printed, cut short if it printed a lot.
+	 */
+	void clockChanged(boolean succeeded, String output);
+}
@@ -1,23 +1,34 @@
 package Model;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
+import Util.Heartbeat;
+import Util.LatencyHistogram;
+import Util.Log;
+import Util.Metrics;
+import Util.StartupTimer;
+
 /**
  * 
  * @author Brandon Blaschke
@@ -26,9 +37,26 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 public class ClockModel {
 	
 	/**
-	 * List of alarms.
+	 * Log for the sound card and system clock.
+	 */
+	private static final Log LOG = Log.site("ClockModel");
+	
+	/**
+	 * Gap between alarm checks taken as the clock jumping while it is being changed,
+	 * longer than the scheduler ever sleeps.
+	 */
+	private static final Duration CLOCK_JUMP = Duration.ofMinutes(2);
+	
+	/**
+	 * How long the alarm snoozes for.
+	 */
+	private static final Duration SNOOZE = Duration.ofMinutes(10);
+	
+	/**
+	 * Latest snapshot of the alarms. Readers take it without locking, changes are made
+	 * to a copy while the model is locked and published by replacing it.
 	 */
-	private ArrayList<Alarm> alarms;
+	private final AtomicReference<AlarmSnapshot> alarms;
 	
 	/**
 	 * Formats the dates for the date command.
@@ -43,7 +71,7 @@ public class ClockModel {
 	/**
 	 * True if alarm is on, False if off.
 	 */
-	private boolean alarmOn;
+	private volatile boolean alarmOn;
 	
 	
 	/**
@@ -51,43 +79,210 @@ public class ClockModel {
 	 */
 	private AudioPlayer audioPlayer;
 	
+	/**
+	 * Sounds the alarms can play.
+	 */
+	private SoundLibrary sounds;
+	
+	/**
+	 * Sound of the alarm that went off last, played again when the snooze runs out.
+	 */
+	private String ringingSound;
+	
+	/**
+	 * Sound of the first alarm or snooze due. Volatile so the watchdog can read it
+	 * without the lock.
+	 */
+	private volatile String nextSound;
 	
 	/**
 	 * Time for snooze;
 	 */
-	private LocalDateTime snoozeTime;
+	private Instant snoozeTime;
 	
 	/**
 	 * True if snooze is active, False otherwise.
 	 */
 	private boolean snoozeActive;
 	
+	/**
+	 * Epoch milliseconds of the last alarm check.
+	 */
+	private long lastCheck;
+	
+	/**
+	 * Epoch milliseconds each active alarm next fires at, by alarm number. Worked out
+	 * once when the alarm changes or fires, or the clock is changed, not on every check.
+	 */
+	private HashMap<Integer, Long> fireAt;
+	
+	/**
+	 * Numbers of the active alarms by the epoch milliseconds they next fire at, the same
+	 * as fireAt in time order, so a check only looks at the alarms that are due.
+	 */
+	private TreeMap<Long, TreeSet<Integer>> fireOrder;
+	
+	/**
+	 * Epoch milliseconds the first alarm or the snooze is due at, Long.MAX_VALUE if
+	 * nothing is. Nothing can be due before it, so most checks stop at comparing it.
+	 * Volatile so the watchdog can read it without the lock.
+	 */
+	private volatile long nextFire;
+	
+	/**
+	 * Thread that fires the alarms when they are due.
+	 */
+	private AlarmScheduler scheduler;
+	
+	/**
+	 * Saves the alarms to disk.
+	 */
+	private AlarmStore alarmStore;
+	
+	/**
+	 * Clock the time is read from, the system clock unless a simulated one is given.
+	 */
+	private Clock clock;
+	
+	/**
+	 * Told about every alarm and snooze that fires.
+	 */
+	private ArrayList<AlarmListener> listeners;
+	
+	/**
+	 * Told whenever the alarms change.
+	 */
+	private ArrayList<ModelListener> modelListeners;
+	
+	/**
+	 * Changes the system clock.
+	 */
+	private ClockSetter clockSetter;
+	
+	/**
+	 * Number of system clock changes that haven't finished.
+	 */
+	private volatile int clockChanges;
+	
+	/**
+	 * Heartbeat of the alarm check, including waiting for the lock.
+	 */
+	private final Heartbeat checkBeat = new Heartbeat("alarm check");
+	
+	/**
+	 * Random id of this clock, stamped on the alarms it changes.
+	 */
+	private long node;
+	
+	/**
+	 * Latest version given to or seen on a change. Versions follow the clock's
+	 * milliseconds but never go backwards, even when the clock is set back.
+	 */
+	private long lastVersion;
+	
 	
 	/**
 	 * Create a ClockModel.
 	 * @param numberOfAlarms The number of alarms to have.
 	 */
 	public ClockModel(int numberOfAlarms) {
+		this(numberOfAlarms, new AlarmStore(new File("./alarms.dat"), new File("./alarms.txt")));
+	}
+	
+	/**
+	 * Create a ClockModel.
+	 * @param numberOfAlarms The number of alarms to have.
+	 * @param store Where the alarms are saved.
+	 */
+	public ClockModel(int numberOfAlarms, AlarmStore store) {
+		this(numberOfAlarms, store, Clock.systemDefaultZone());
+	}
+	
+	/**
+	 * Create a ClockModel.
+	 * @param numberOfAlarms The number of alarms to have.
+	 * @param store Where the alarms are saved.
+	 * @param clock Clock the time is read from.
+	 */
+	public ClockModel(int numberOfAlarms, AlarmStore store, Clock clock) {
+		// The built in sound is the alarm soundfx file by GowlerMusic
+		this(numberOfAlarms, store, clock, new AudioPlayer(new SoundLibrary()), true);
+	}
+	
+	/**
+	 * Create a ClockModel.
+	 * @param numberOfAlarms The number of alarms to have.
+	 * @param store Where the alarms are saved.
+	 * @param clock Clock the time is read from.
+	 * @param player Plays the alarm sound.
+	 * @param startThreads False to leave checking the alarms to the caller, for running
+	 * on simulated time.
+	 */
+	ClockModel(int numberOfAlarms, AlarmStore store, Clock clock, AudioPlayer player, boolean startThreads) {
+		this.clock = clock;
+		alarmStore = store;
+		listeners = new ArrayList<AlarmListener>();
+		modelListeners = new ArrayList<ModelListener>();
+		fireAt = new HashMap<Integer, Long>();
+		fireOrder = new TreeMap<Long, TreeSet<Integer>>();
+		node = new Random().nextLong();
 		LocalTime deafultTime = LocalTime.parse("12:00"); 
 		
-		alarms = new ArrayList<Alarm>();
+		ArrayList<Alarm> defaults = new ArrayList<Alarm>();
 		for(int i = 0; i < numberOfAlarms; i++) {
-			alarms.add(new Alarm(i+1, deafultTime));
+			defaults.add(new Alarm(i+1, deafultTime));
 		}
+		alarms = new AtomicReference<AlarmSnapshot>(new AlarmSnapshot(defaults));
 		
 		dateFormatCmd = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.US);
-		timeFormatCmd = DateTimeFormatter.ofPattern("hh:mm:ss", Locale.US);
+		timeFormatCmd = DateTimeFormatter.ofPattern("HH:mm:ss", Locale.US);
+		clockSetter = new ClockSetter();
 		
-		// Location of alarm soundfx file by GowlerMusic
-		try {
-			audioPlayer = new AudioPlayer("src/Model/alarm_sound.wav");
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		audioPlayer = player;
+		sounds = player.getLibrary();
 		
 		alarmOn = false;
 		snoozeActive = false;
 		readAlarms();
+		
+		lastCheck = clock.millis();
+		scheduleAll();
+		scheduler = new AlarmScheduler(this);
+		if (!startThreads)
+			return;
+		
+		scheduler.start();
+		preloadAudio();
+		
+		// Write any change that is still waiting when the program exits.
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				alarmStore.flush();
+			}
+		}, "alarm-store-flush"));
+	}
+	
+	/**
+	 * Open the line to the sound card on a background thread so it doesn't hold up the
+	 * first frame. If an alarm goes off first, playing it loads it.
+	 */
+	private void preloadAudio() {
+		Thread loader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				try {
+					audioPlayer.load();
+					StartupTimer.record("audio", start);
+				} catch (Exception e) {
+					LOG.error("Couldn't open the sound card", e);
+				}
+			}
+		}, "audio-loader");
+		loader.setDaemon(true);
+		loader.setPriority(Thread.MIN_PRIORITY);
+		loader.start();
 	}
 	
 	/**
@@ -96,26 +291,18 @@ public class ClockModel {
 	 * @param newTime Time to be set on system clock
 	 */
 	public void setTime(String newTime) {
-		try {
-			String currentDate = String.valueOf(dateFormatCmd.format(getTime()));
-			System.out.println(String.format("%s %s", currentDate, newTime));
-			Process p = Runtime.getRuntime().exec(new String[] {"date", "--set", String.format("%s %s", currentDate, newTime)});
-			
-			// Debugging purposes
-			BufferedReader stdInput = new BufferedReader(new InputStreamReader(p.getInputStream()));
-			String s = null;
-			while ((s = stdInput.readLine()) != null) {
-				System.out.println(s);
-			}
-			
-			BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-			String ss = null;
-			while ((ss = stdError.readLine()) != null) {
-				System.out.println(ss);
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		setTime(newTime, null);
+	}
+	
+	/**
+	 * Set the time for the system clock to the new time in the background.
+	 * Should be in the format of hh:mm:ss.sss AM
+	 * @param newTime Time to be set on system clock
+	 * @param listener Told when the change finished, may be null.
+	 */
+	public void setTime(String newTime, ClockChangeListener listener) {
+		String currentDate = dateFormatCmd.format(getTime());
+		changeClock(String.format("%s %s", currentDate, newTime), listener);
 	}
 	
 	/**
@@ -124,121 +311,543 @@ public class ClockModel {
 	 * @param newDate Date to be set on system clock.
 	 */
 	public void setDate(String newDate) {
-		try {
-			String currentTime = String.valueOf(timeFormatCmd.format(getTime()));
-			System.out.println(currentTime);
-			Process p = Runtime.getRuntime().exec(new String[] {"date", "--set", String.format("%s %s",newDate, currentTime)});
-		} catch (IOException e) {
-			e.printStackTrace();
+		setDate(newDate, null);
+	}
+	
+	/**
+	 * Set the date for the system clock to the new time in the background.
+	 * Should be in the format of yyyy-mm-dd.
+	 * @param newDate Date to be set on system clock.
+	 * @param listener Told when the change finished, may be null.
+	 */
+	public void setDate(String newDate, ClockChangeListener listener) {
+		String currentTime = timeFormatCmd.format(getTime());
+		changeClock(String.format("%s %s", newDate, currentTime), listener);
+	}
+	
+	/**
+	 * Change the system clock in the background. Until it is done, alarm checks ignore
+	 * a jump in the time, and when it is done the alarms are scheduled from the new time.
+	 * @param dateTime Date and time for date --set.
+	 * @param listener Told when the change finished, may be null.
+	 */
+	private void changeClock(final String dateTime, final ClockChangeListener listener) {
+		synchronized (this) {
+			clockChanges++;
 		}
+		clockSetter.set(dateTime, new ClockChangeListener() {
+			@Override
+			public void clockChanged(boolean succeeded, String output) {
+				clockJumped();
+				if (succeeded) {
+					LOG.info("System clock set to " + dateTime);
+				} else {
+					LOG.warn("Couldn't set the system clock to " + dateTime + ": " + output.trim(), null);
+				}
+				if (listener != null)
+					listener.clockChanged(succeeded, output);
+			}
+		});
+	}
+	
+	/**
+	 * Start checking from the new time after the system clock was changed, so alarms
+	 * jumped over aren't fired and the scheduler wakes for the next alarm from now.
+	 */
+	private synchronized void clockJumped() {
+		clockChanges--;
+		lastCheck = clock.millis();
+		scheduleAll();
+		audioPlayer.disarm();
+		scheduler.reschedule();
+		changed();
 	}
 	
 	/**
 	 * Current LocalDateTime of 
 	 * @return Current time and date.
 	 */
-	public static LocalDateTime getTime() {
-		return LocalDateTime.now();
+	public LocalDateTime getTime() {
+		return LocalDateTime.now(clock);
+	}
+	
+	/**
+	 * Clock the time is read from.
+	 * @return Clock of the model.
+	 */
+	public Clock getClock() {
+		return clock;
+	}
+	
+	/**
+	 * Heartbeat of the alarm check, for the watchdog.
+	 * @return Heartbeat.
+	 */
+	Heartbeat getCheckHeartbeat() {
+		return checkBeat;
 	}
 	
 	/**
-	 * Get the list of alarms.
-	 * @return ArrayList of Alarms.
+	 * Player the alarms play on, for the watchdog.
+	 * @return Audio player.
 	 */
-	public ArrayList<Alarm> getAlarms() {
-		return alarms;
+	AudioPlayer getAudioPlayer() {
+		return audioPlayer;
+	}
+	
+	/**
+	 * Epoch milliseconds the first alarm or the snooze is due at, read without the lock.
+	 * @return Next due time, Long.MAX_VALUE if nothing is due.
+	 */
+	long nextFireMillis() {
+		return nextFire;
+	}
+	
+	/**
+	 * Sound of the first alarm or snooze due, read without the lock.
+	 * @return Name of the sound, null for the default sound.
+	 */
+	String nextFireSound() {
+		return nextSound;
+	}
+	
+	/**
+	 * Checks if the system clock is being changed, when alarms jumped over aren't fired.
+	 * @return True until the change has finished.
+	 */
+	boolean isChangingClock() {
+		return clockChanges > 0;
+	}
+	
+	/**
+	 * Add a listener told about every alarm and snooze that fires. It is called on the
+	 * thread checking the alarms while the model is locked, so it should be quick.
+	 * @param listener Listener to add.
+	 */
+	public synchronized void addAlarmListener(AlarmListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Add a listener told whenever the alarms change, and once straight away. It is called
+	 * on the thread making the change while the model is locked, so it should be quick.
+	 * @param listener Listener to add.
+	 */
+	public synchronized void addModelListener(ModelListener listener) {
+		modelListeners.add(listener);
+		listener.modelChanged();
+	}
+	
+	/**
+	 * Remove a listener added with addModelListener.
+	 * @param listener Listener to remove.
+	 */
+	public synchronized void removeModelListener(ModelListener listener) {
+		modelListeners.remove(listener);
+	}
+	
+	/**
+	 * Tell the model listeners something changed.
+	 */
+	private void changed() {
+		for (ModelListener listener : modelListeners) {
+			listener.modelChanged();
+		}
+	}
+	
+	/**
+	 * Get the list of alarms as they are now. The list never changes, get it again to
+	 * see later changes.
+	 * @return List of Alarms.
+	 */
+	public List<Alarm> getAlarms() {
+		return alarms.get().getAlarms();
+	}
+	
+	/**
+	 * Get the latest snapshot of the alarms without locking.
+	 * @return Snapshot of the alarms.
+	 */
+	public AlarmSnapshot getAlarmSnapshot() {
+		return alarms.get();
 	}
 	
 	/**
 	 * Set an alarm for one of the three alarms.
 	 * @param alarmNum Alarm to change.
 	 * @param newTime New time that the alarm should wake up to.
+	 * @return The changed alarm.
 	 * @throws Exception Throws Exception if alarm number doesn't exist. 
 	 */
-	public void setAlarm(int alarmNum, LocalTime newTime) throws Exception {
-		for(Alarm alarm : alarms) {
-			if (alarm.number == alarmNum) {
-				alarm.time = newTime;
-				saveAlarms();
-				return;
-			}
+	public synchronized Alarm setAlarm(int alarmNum, LocalTime newTime) throws Exception {
+		Alarm alarm = alarms.get().get(alarmNum);
+		if (alarm != null) {
+			return publish(alarm.withTime(newTime, nextVersion(), node));
 		}
 		throw new Exception("Alarm does not exist, Number: " + String.valueOf(alarmNum));
 	}
 	
-	private void saveAlarms() {
-		try {
-			FileOutputStream fileOut = new FileOutputStream("./alarms.txt");
-			ObjectOutputStream out = new ObjectOutputStream(fileOut);
-			out.writeObject(this.alarms);
-			out.close();
-			fileOut.close();
-			System.out.println("Saved Filed");
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Publish a changed alarm in a new snapshot, then save it and reschedule. Called
+	 * while the model is locked, so changes never overwrite each other.
+	 * @param alarm Changed alarm.
+	 * @return The changed alarm.
+	 */
+	private Alarm publish(Alarm alarm) {
+		AlarmSnapshot next = alarms.get().with(alarm);
+		alarms.set(next);
+		alarmStore.save(next.getAlarms());
+		schedule(alarm, clock.millis());
+		updateNextFire();
+		scheduler.reschedule();
+		changed();
+		return alarm;
 	}
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * Replace the alarms with the saved ones, if any were saved.
+	 */
 	private void readAlarms() {
+		List<Alarm> saved = alarmStore.load();
+		if (saved == null)
+			return;
 		
-		try {
-			FileInputStream fileIn = new FileInputStream("./alarms.txt");
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-			alarms = (ArrayList<Alarm>) in.readObject();
-			in.close();
-			fileIn.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+		alarms.set(alarms.get().withAll(saved));
+		for (Alarm alarm : saved) {
+			lastVersion = Math.max(lastVersion, alarm.version);
 		}
 	}
 	
+	/**
+	 * Version for a change made now.
+	 * @return Version later than any seen before.
+	 */
+	private long nextVersion() {
+		lastVersion = Math.max(clock.millis(), lastVersion + 1);
+		return lastVersion;
+	}
+	
+	/**
+	 * Apply a change made on another clock, unless this clock has a newer change to the
+	 * same alarm.
+	 * @param alarmNum Alarm that changed.
+	 * @param newTime Time of the alarm.
+	 * @param activate True if active, false if inactive.
+	 * @param sound Name of the sound, null for the default sound.
+	 * @param version Version of the change.
+	 * @param writer Node of the clock that made the change.
+	 * @return True if the change was applied.
+	 */
+	synchronized boolean mergeAlarm(int alarmNum, LocalTime newTime, boolean activate, String sound, long version,
+			long writer) {
+		Alarm alarm = alarms.get().get(alarmNum);
+		if (alarm == null || !alarm.isOlderThan(version, writer))
+			return false;
+		
+		lastVersion = Math.max(lastVersion, version);
+		publish(new Alarm(alarmNum, newTime, activate, sound, version, writer));
+		return true;
+	}
+	
+	/**
+	 * Random id of this clock, stamped on the alarms it changes.
+	 * @return Node of this clock.
+	 */
+	long getNode() {
+		return node;
+	}
+	
 	/**
 	 * Make the given alarm active or inactive.
 	 * @param alarmNum Alarm to change.
 	 * @param activate True if active, false if inactive.
+	 * @return The changed alarm.
 	 * @throws Exception 
 	 */
-	public void setAlarm(int alarmNum, boolean activate) throws Exception {
-		for(Alarm alarm : alarms) {
-			if (alarm.number == alarmNum) {
-				alarm.isActive = activate;
-				return;
-			}
+	public synchronized Alarm setAlarm(int alarmNum, boolean activate) throws Exception {
+		Alarm alarm = alarms.get().get(alarmNum);
+		if (alarm != null) {
+			return publish(alarm.withActive(activate, nextVersion(), node));
+		}
+		throw new Exception("Alarm does not exist, Number: " + String.valueOf(alarmNum));
+	}
+	
+	/**
+	 * Choose the sound the given alarm plays.
+	 * @param alarmNum Alarm to change.
+	 * @param sound Name of a sound in the library, null for the default sound.
+	 * @return The changed alarm.
+	 * @throws Exception Throws Exception if the alarm or sound doesn't exist.
+	 */
+	public synchronized Alarm setAlarmSound(int alarmNum, String sound) throws Exception {
+		if (sound != null && !sounds.contains(sound))
+			throw new Exception("Sound does not exist: " + sound);
+		Alarm alarm = alarms.get().get(alarmNum);
+		if (alarm != null) {
+			return publish(alarm.withSound(sound, nextVersion(), node));
 		}
 		throw new Exception("Alarm does not exist, Number: " + String.valueOf(alarmNum));
 	}
 	
 	/**
-	 * Checks if the alarms match the time. If one of them does the alarm goes off.
+	 * Sounds the alarms can play.
+	 * @return Sound library of the clock.
+	 */
+	public SoundLibrary getSounds() {
+		return sounds;
+	}
+	
+	/**
+	 * Fires every alarm and snooze that became due since the last check. Alarms missed
+	 * because of a stall are caught up on here. The time recorded includes waiting for
+	 * the lock, which is also what the watchdog sees.
 	 */
 	public void checkAlarm() {
-		for (Alarm alarm : alarms) {
-			String currentTime = String.valueOf(timeFormatCmd.format(getTime()));
-			String alarmTime = String.valueOf(timeFormatCmd.format(alarm.time));
-			
-			boolean isSnooze = snoozeActive && String.valueOf(timeFormatCmd.format(snoozeTime)).equals(currentTime);
-			
-			if ((alarmTime.equals(currentTime) && alarm.isActive) || isSnooze) {
-				audioPlayer.play();
-				alarmOn = true;
+		long start = System.nanoTime();
+		checkBeat.begin(start);
+		try {
+			synchronized (this) {
+				fireDueAlarms();
+			}
+		} finally {
+			long end = System.nanoTime();
+			Metrics.CHECK_ALARM.recordNanos(end - start);
+			checkBeat.end(end);
+		}
+	}
+	
+	/**
+	 * Fire what became due since the last check.
+	 */
+	private void fireDueAlarms() {
+		long now = clock.millis();
+		if (now < nextFire && now >= lastCheck) {
+			lastCheck = now;
+			return;
+		}
+		
+		// The system clock is being changed, leave a jump for clockJumped() to handle.
+		if (clockChanges > 0 && (now < lastCheck || now > lastCheck + CLOCK_JUMP.toMillis()))
+			return;
+		
+		// Clock was set backwards, the alarms are due again from the new time.
+		if (now < lastCheck) {
+			lastCheck = now;
+			scheduleAll();
+			return;
+		}
+		
+		long scheduled = nextFire;
+		String sound = nextSound;
+		boolean due = false;
+		List<Alarm> firing = null;
+		AlarmSnapshot snapshot = alarms.get();
+		while (!fireOrder.isEmpty() && fireOrder.firstKey() <= now) {
+			for (int number : fireOrder.pollFirstEntry().getValue()) {
+				Alarm alarm = snapshot.get(number);
+				fireAt.remove(number);
+				if (alarm == null)
+					continue;
+				// Alarms missed because of a stall fire once, then from now on.
+				due = true;
+				if (firing == null)
+					firing = new ArrayList<Alarm>();
+				firing.add(alarm);
+				fired(alarm);
+				schedule(alarm, now);
 			}
 		}
+		
+		if (snoozeActive && snoozeTime.toEpochMilli() <= now) {
+			snoozeActive = false;
+			due = true;
+			fired(null);
+		}
+		
+		lastCheck = now;
+		updateNextFire();
+		if (due) {
+			ringingSound = sound;
+			audioPlayer.play(Math.min(scheduled, now), sound);
+			if (firing != null) {
+				// Alarms going off together are mixed, the player ignores sounds already playing.
+				for (Alarm alarm : firing) {
+					audioPlayer.play(now, alarm.sound);
+				}
+			}
+			alarmOn = true;
+			changed();
+		}
+	}
+	
+	/**
+	 * Tell the listeners an alarm or the snooze fired.
+	 * @param alarm Alarm that fired, null for the snooze.
+	 */
+	private void fired(Alarm alarm) {
+		for (AlarmListener listener : listeners) {
+			if (alarm == null) {
+				listener.snoozeFired();
+			} else {
+				listener.alarmFired(alarm);
+			}
+		}
+	}
+	
+	/**
+	 * Next time any active alarm or the snooze is due.
+	 * @return Next due time, or null if nothing is due.
+	 */
+	synchronized Instant nextDueTime() {
+		return nextFire == Long.MAX_VALUE ? null : Instant.ofEpochMilli(nextFire);
+	}
+	
+	/**
+	 * Work out when every active alarm next fires from now.
+	 */
+	private void scheduleAll() {
+		long now = clock.millis();
+		fireAt.clear();
+		fireOrder.clear();
+		for (Alarm alarm : alarms.get().getAlarms()) {
+			schedule(alarm, now);
+		}
+		updateNextFire();
+	}
+	
+	/**
+	 * Work out when an alarm next fires. An alarm set in the hour repeated when daylight
+	 * saving time ends fires the first time round, one in the hour skipped when it starts
+	 * fires when the hour is skipped.
+	 * @param alarm Alarm to schedule.
+	 * @param after Epoch milliseconds it must fire after.
+	 */
+	private void schedule(Alarm alarm, long after) {
+		unschedule(alarm.number);
+		if (!alarm.isActive)
+			return;
+		
+		LocalDate date = LocalDateTime.ofInstant(Instant.ofEpochMilli(after), clock.getZone()).toLocalDate();
+		long at = toInstant(date.atTime(alarm.time)).toEpochMilli();
+		while (at <= after) {
+			date = date.plusDays(1);
+			at = toInstant(date.atTime(alarm.time)).toEpochMilli();
+		}
+		fireAt.put(alarm.number, at);
+		TreeSet<Integer> numbers = fireOrder.get(at);
+		if (numbers == null) {
+			numbers = new TreeSet<Integer>();
+			fireOrder.put(at, numbers);
+		}
+		numbers.add(alarm.number);
+	}
+	
+	/**
+	 * Stop an alarm firing until it is scheduled again.
+	 * @param number Number of the alarm.
+	 */
+	private void unschedule(int number) {
+		Long at = fireAt.remove(number);
+		if (at == null)
+			return;
+		TreeSet<Integer> numbers = fireOrder.get(at);
+		if (numbers != null && numbers.remove(number) && numbers.isEmpty())
+			fireOrder.remove(at);
+	}
+	
+	/**
+	 * Find the first alarm or snooze due, and start decoding its sound if it isn't in
+	 * memory yet.
+	 */
+	private void updateNextFire() {
+		long next = Long.MAX_VALUE;
+		String sound = null;
+		if (snoozeActive) {
+			next = snoozeTime.toEpochMilli();
+			sound = ringingSound;
+		}
+		if (!fireOrder.isEmpty() && fireOrder.firstKey() < next) {
+			Map.Entry<Long, TreeSet<Integer>> first = fireOrder.firstEntry();
+			Alarm alarm = alarms.get().get(first.getValue().first());
+			next = first.getKey();
+			sound = alarm == null ? null : alarm.sound;
+		}
+		nextFire = next;
+		nextSound = sound;
+		if (next != Long.MAX_VALUE)
+			sounds.prefetch(sound);
+	}
+	
+	/**
+	 * First instant the local time reaches the given time.
+	 * @param local Local date and time.
+	 * @return Instant it is first reached.
+	 */
+	private Instant toInstant(LocalDateTime local) {
+		ZoneRules rules = clock.getZone().getRules();
+		List<ZoneOffset> offsets = rules.getValidOffsets(local);
+		if (offsets.isEmpty()) {
+			// Skipped over when the clocks went forward.
+			return rules.getTransition(local).getInstant();
+		}
+		return local.toInstant(offsets.get(0));
+	}
+	
+	/**
+	 * Current instant of the model's clock.
+	 * @return Current instant.
+	 */
+	Instant instant() {
+		return clock.instant();
+	}
+	
+	/**
+	 * Get the audio ready to start right away, called shortly before the next alarm is due.
+	 */
+	synchronized void armAudio() {
+		if (!alarmOn)
+			audioPlayer.arm(nextSound);
+	}
+	
+	/**
+	 * Release the audio if it was armed for an alarm that is no longer coming up.
+	 */
+	void disarmAudio() {
+		audioPlayer.disarm();
+	}
+	
+	/**
+	 * Time from each alarm's scheduled time to its first audio reaching the sound card.
+	 * @return Histogram of fire skew.
+	 */
+	public LatencyHistogram getFireSkew() {
+		return audioPlayer.getFireSkew();
 	}
 	
 	/**
 	 * Stops the alarm and or snooze alarm.
 	 */
-	public void stopAlarm() {
+	public synchronized void stopAlarm() {
 		audioPlayer.pause();
 		alarmOn = false;
 		snoozeActive = false;
+		updateNextFire();
+		scheduler.reschedule();
+		changed();
+	}
+	
+	/**
+	 * Show the alarm as going off, called by the Watchdog once it has played an alarm the
+	 * alarm check didn't fire. The flag is set without the model's lock so the snooze
+	 * screen comes up even if the lock is held, the listeners are told once it is free.
+	 */
+	void watchdogFired() {
+		alarmOn = true;
+		synchronized (this) {
+			// Snoozed or stopped while waiting for the lock.
+			if (alarmOn)
+				changed();
+		}
 	}
 	
 	/**
@@ -252,11 +861,21 @@ public class ClockModel {
 	/**
 	 * Set the snooze time for the alarm, will snooze for 10mins.
 	 */
-	public void setSnooze() {
-		snoozeTime = getTime();
-		snoozeTime = snoozeTime.plusMinutes(10);
+	public synchronized void setSnooze() {
+		snoozeTime = clock.instant().plus(SNOOZE);
 		snoozeActive = true;
+		updateNextFire();
 		audioPlayer.pause();
 		alarmOn = false;
+		scheduler.reschedule();
+		changed();
+	}
+	
+	/**
+	 * When the snooze runs out.
+	 * @return Time the alarm goes off again, or null if not snoozing.
+	 */
+	public synchronized Instant getSnoozeTime() {
+		return snoozeActive ? snoozeTime : null;
 	}
 }
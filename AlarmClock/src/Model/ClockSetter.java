@@ -0,0 +1,125 @@
+package Model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import Util.DaemonThreadFactory;
+
+/**
+ * @author Brandon Blaschke
+ * Sets the system clock with date --set on a background thread, one change at a time.
+ * The command's output and errors are captured up to a limit, and a command that hangs
+ * is killed.
+ */
+class ClockSetter {
+	
+	/**
+	 * Longest time to wait for the command to finish.
+	 */
+	private static final long TIMEOUT_SECONDS = 5;
+	
+	/**
+	 * Most bytes of output kept, the rest is read and thrown away.
+	 */
+	private static final int MAX_OUTPUT = 4096;
+	
+	/**
+	 * Runs the commands, one at a time.
+	 */
+	private ExecutorService commands;
+	
+	/**
+	 * Reads the output of the running command.
+	 */
+	private ExecutorService readers;
+	
+	/**
+	 * Create a ClockSetter.
+	 */
+	ClockSetter() {
+		commands = Executors.newSingleThreadExecutor(new DaemonThreadFactory("system-clock"));
+		readers = Executors.newSingleThreadExecutor(new DaemonThreadFactory("system-clock-output"));
+	}
+	
+	/**
+	 * Set the system clock in the background.
+	 * @param dateTime Date and time as date --set takes it, e.g. "2020-01-05 19:30:00".
+	 * @param listener Told when the change finished.
+	 * @return Future of the change.
+	 */
+	Future<?> set(final String dateTime, final ClockChangeListener listener) {
+		return commands.submit(new Runnable() {
+			@Override
+			public void run() {
+				boolean succeeded = false;
+				String output = "";
+				try {
+					Process process = new ProcessBuilder("date", "--set", dateTime).redirectErrorStream(true).start();
+					Future<String> reader = readers.submit(readOutput(process.getInputStream()));
+					
+					boolean finished = process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+					if (!finished) {
+						// Killing it closes its output, which ends the reader.
+						process.destroyForcibly();
+					}
+					output = reader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+					succeeded = finished && process.exitValue() == 0;
+					if (!finished)
+						output += "Timed out after " + TIMEOUT_SECONDS + "s";
+				} catch (IOException | TimeoutException | ExecutionException e) {
+					output += e.toString();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				
+				listener.clockChanged(succeeded, output);
+			}
+		});
+	}
+	
+	/**
+	 * Read a stream to the end, keeping only the start of it.
+	 * @param in Stream to read.
+	 * @return Task returning what was kept.
+	 */
+	private Callable<String> readOutput(final InputStream in) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				byte[] kept = new byte[MAX_OUTPUT];
+				byte[] discard = new byte[512];
+				int length = 0;
+				boolean cut = false;
+				try {
+					while (true) {
+						int n;
+						if (length < kept.length) {
+							n = in.read(kept, length, kept.length - length);
+							if (n > 0)
+								length += n;
+						} else {
+							n = in.read(discard);
+							if (n > 0)
+								cut = true;
+						}
+						if (n < 0)
+							break;
+					}
+				} finally {
+					in.close();
+				}
+				
+				String output = new String(kept, 0, length, Charset.defaultCharset());
+				return cut ? output + "...\n" : output;
+			}
+		};
+	}
+}
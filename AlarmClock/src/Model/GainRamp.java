@@ -0,0 +1,119 @@
+package Model;
+
+/**
+ * @author Brandon Blaschke
+ * Volume that moves from one level to another over a number of frames, applied to
+ * samples in place. Between two levels above zero it moves by the same number of
+ * decibels each frame, which is heard as a steady rise or fall. To or from zero it moves
+ * by the same amount each frame instead, since zero is no number of decibels away.
+ * Applying it never allocates.
+ */
+class GainRamp {
+	
+	/**
+	 * Level of the next frame, 1 for unchanged.
+	 */
+	private double gain;
+	
+	/**
+	 * Level the ramp ends at.
+	 */
+	private double target;
+	
+	/**
+	 * Amount the level is multiplied by or added to each frame.
+	 */
+	private double step;
+	
+	/**
+	 * True if the step multiplies the level, false if it is added.
+	 */
+	private boolean multiply;
+	
+	/**
+	 * Frames left until the target is reached.
+	 */
+	private long remaining;
+	
+	/**
+	 * Create a GainRamp at a level.
+	 * @param level Level to start at, 1 for unchanged.
+	 */
+	GainRamp(double level) {
+		set(level);
+	}
+	
+	/**
+	 * Jump straight to a level, ending any ramp.
+	 * @param level New level.
+	 */
+	void set(double level) {
+		gain = level;
+		target = level;
+		remaining = 0;
+	}
+	
+	/**
+	 * Ramp from the current level to another.
+	 * @param level Level to end at.
+	 * @param frames Number of frames the ramp lasts, 0 or less to jump straight there.
+	 */
+	void rampTo(double level, long frames) {
+		if (frames <= 0 || level == gain) {
+			set(level);
+			return;
+		}
+		
+		target = level;
+		remaining = frames;
+		multiply = gain > 0 && level > 0;
+		step = multiply ? Math.pow(level / gain, 1.0 / frames) : (level - gain) / frames;
+	}
+	
+	/**
+	 * Level of the next frame.
+	 * @return Current level.
+	 */
+	double getGain() {
+		return gain;
+	}
+	
+	/**
+	 * Checks if the level is still moving.
+	 * @return True until the target is reached.
+	 */
+	boolean isRamping() {
+		return remaining > 0;
+	}
+	
+	/**
+	 * Apply the level to interleaved samples, moving it along the ramp one step per frame.
+	 * @param samples Samples to change in place.
+	 * @param frames Number of frames.
+	 * @param channels Samples in each frame.
+	 */
+	void apply(float[] samples, int frames, int channels) {
+		int i = 0;
+		if (remaining == 0) {
+			if (gain == 1)
+				return;
+			float g = (float) gain;
+			for (int end = frames * channels; i < end; i++) {
+				samples[i] *= g;
+			}
+			return;
+		}
+		
+		for (int f = 0; f < frames; f++) {
+			if (remaining > 0) {
+				gain = multiply ? gain * step : gain + step;
+				if (--remaining == 0)
+					gain = target;
+			}
+			float g = (float) gain;
+			for (int c = 0; c < channels; c++, i++) {
+				samples[i] *= g;
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package Model;
+
+/**
+ * @author Brandon Blaschke
+ * Keeps mixed audio under a ceiling so two loud sounds playing together don't clip. When
+ * a frame would go over, the volume drops at once to just fit and then comes back up over
+ * the release time. Works on samples in place and never allocates.
+ */
+class Limiter {
+	
+	/**
+	 * Highest level a sample may reach, full scale being 1.
+	 */
+	private final float ceiling;
+	
+	/**
+	 * Part of the distance from the current level to 1 still left after each frame.
+	 */
+	private final double release;
+	
+	/**
+	 * Level applied to the next frame.
+	 */
+	private double gain;
+	
+	/**
+	 * Create a Limiter.
+	 * @param ceiling Highest level a sample may reach, full scale being 1.
+	 * @param sampleRate Frames per second.
+	 * @param releaseSeconds Time for the level to come most of the way back up.
+	 */
+	Limiter(float ceiling, float sampleRate, float releaseSeconds) {
+		this.ceiling = ceiling;
+		release = Math.exp(-1.0 / (sampleRate * releaseSeconds));
+		gain = 1;
+	}
+	
+	/**
+	 * Limit interleaved samples.
+	 * @param samples Samples to change in place.
+	 * @param frames Number of frames.
+	 * @param channels Samples in each frame.
+	 */
+	void apply(float[] samples, int frames, int channels) {
+		int i = 0;
+		for (int f = 0; f < frames; f++) {
+			float peak = 0;
+			for (int c = 0; c < channels; c++) {
+				peak = Math.max(peak, Math.abs(samples[i + c]));
+			}
+			
+			gain = 1 - (1 - gain) * release;
+			if (peak * gain > ceiling)
+				gain = ceiling / peak;
+			
+			float g = (float) gain;
+			for (int c = 0; c < channels; c++, i++) {
+				samples[i] *= g;
+			}
+		}
+	}
+	
+	/**
+	 * Level applied to the last frame, below 1 while limiting.
+	 * @return Current level.
+	 */
+	double getGain() {
+		return gain;
+	}
+	
+	/**
+	 * Go back to full level, such as before a new sound starts.
+	 */
+	void reset() {
+		gain = 1;
+	}
+}
@@ -0,0 +1,14 @@
+package Model;
+
+/**
+ * @author Brandon Blaschke
+ * Told whenever an alarm, the snooze or whether the alarm is going off changes.
+ */
+public interface ModelListener {
+	
+	/**
+	 * Something shown about the alarms changed. Called while the model is locked, so the
+	 * model can be read here without it changing.
+	 */
+	void modelChanged();
+}
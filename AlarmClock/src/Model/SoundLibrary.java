@@ -0,0 +1,322 @@
+package Model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import Util.DaemonThreadFactory;
+import Util.Log;
+import Util.Metrics;
+
+/**
+ * @author Brandon Blaschke
+ * The sounds the alarms can play: the sound that comes with the clock and every WAV file
+ * in the sounds folder, which is looked through once when the library is made. A sound is
+ * named after its file without the extension. Every sound is decoded to the same format,
+ * so any of them can be played on the same line without reopening it.
+ *
+ * Decoded sounds are kept in a cache holding at most a set number of bytes. When it is
+ * full the sound used longest ago is dropped. A sound bigger than the whole cache is
+ * decoded while it plays instead. Sounds are decoded ahead of time on a background
+ * thread when asked to, so the next alarm's sound is in memory before it goes off.
+ *
+ * The folder is set with -Dalarmclock.sounds and the cache size in bytes with
+ * -Dalarmclock.sounds.cache.
+ */
+public class SoundLibrary {
+	
+	/**
+	 * Log for sounds that couldn't be read.
+	 */
+	private static final Log LOG = Log.site("SoundLibrary");
+	
+	/**
+	 * Format every sound is decoded to, 16 bit stereo at 44.1 kHz.
+	 */
+	public static final AudioFormat FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+	
+	/**
+	 * Name of the sound that comes with the clock, played by alarms without a sound of their own.
+	 */
+	public static final String BUILT_IN = "alarm_sound";
+	
+	/**
+	 * Location of the built in sound on the class path.
+	 */
+	private static final String BUILT_IN_RESOURCE = "/Model/alarm_sound.wav";
+	
+	/**
+	 * Size of the cache unless set with -Dalarmclock.sounds.cache.
+	 */
+	private static final long DEFAULT_CACHE_BYTES = 16 * 1024 * 1024;
+	
+	/**
+	 * Where each sound is read from, by name.
+	 */
+	private final Map<String, URL> sounds;
+	
+	/**
+	 * Read only list of the names in order.
+	 */
+	private final List<String> names;
+	
+	/**
+	 * Most bytes of decoded sound kept in memory.
+	 */
+	private final long cacheBytes;
+	
+	/**
+	 * Decoded sounds by name, the one used longest ago first.
+	 */
+	private final LinkedHashMap<String, byte[]> cache;
+	
+	/**
+	 * Bytes held by the cache.
+	 */
+	private long cachedBytes;
+	
+	/**
+	 * Sounds being decoded in the background.
+	 */
+	private final HashSet<String> loading;
+	
+	/**
+	 * Sounds too big for the cache, played from their files, or that couldn't be decoded,
+	 * for which AudioPlayer plays the default sound. Not decoded again.
+	 */
+	private final HashSet<String> tooBig;
+	
+	/**
+	 * Thread decoding sounds ahead of time.
+	 */
+	private final ExecutorService loader;
+	
+	/**
+	 * Create a SoundLibrary with the folder and cache size set by the system properties.
+	 * The folder is ~/.alarmclock/sounds unless set.
+	 */
+	public SoundLibrary() {
+		this(new File(System.getProperty("alarmclock.sounds",
+				new File(System.getProperty("user.home"), ".alarmclock/sounds").getPath())),
+				Long.getLong("alarmclock.sounds.cache", DEFAULT_CACHE_BYTES));
+	}
+	
+	/**
+	 * Create a SoundLibrary.
+	 * @param dir Folder of WAV files, may be missing.
+	 * @param cacheBytes Most bytes of decoded sound kept in memory.
+	 */
+	public SoundLibrary(File dir, long cacheBytes) {
+		this.cacheBytes = cacheBytes;
+		cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+		loading = new HashSet<String>();
+		tooBig = new HashSet<String>();
+		
+		TreeMap<String, URL> found = new TreeMap<String, URL>();
+		URL builtIn = SoundLibrary.class.getResource(BUILT_IN_RESOURCE);
+		if (builtIn != null)
+			found.put(BUILT_IN, builtIn);
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (!file.isFile() || !name.toLowerCase(Locale.US).endsWith(".wav"))
+					continue;
+				try {
+					found.put(name.substring(0, name.length() - 4), file.toURI().toURL());
+				} catch (IOException e) {
+					LOG.warn("Skipping sound " + file, e);
+				}
+			}
+		}
+		sounds = found;
+		names = Collections.unmodifiableList(new ArrayList<String>(found.keySet()));
+		
+		loader = Executors.newSingleThreadExecutor(new DaemonThreadFactory("sound-loader", Thread.MIN_PRIORITY));
+	}
+	
+	/**
+	 * Names of every sound, in order.
+	 * @return Read only list of names.
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+	
+	/**
+	 * Checks if there is a sound with the name.
+	 * @param name Name of the sound.
+	 * @return True if the sound exists.
+	 */
+	public boolean contains(String name) {
+		return name != null && sounds.containsKey(name);
+	}
+	
+	/**
+	 * Sound played by alarms without a sound of their own: the built in sound, or the
+	 * first sound if it is missing.
+	 * @return Name of the sound, or null if there are no sounds.
+	 */
+	public String getDefault() {
+		if (sounds.containsKey(BUILT_IN))
+			return BUILT_IN;
+		return names.isEmpty() ? null : names.get(0);
+	}
+	
+	/**
+	 * Sound that is played for a name.
+	 * @param name Name of a sound, may be null.
+	 * @return The name if the sound exists, otherwise the default sound.
+	 */
+	public String resolve(String name) {
+		return contains(name) ? name : getDefault();
+	}
+	
+	/**
+	 * Open a sound for playing, from memory if it is decoded and from its file otherwise.
+	 * A sound that isn't in memory is decoded in the background for the next time.
+	 * @param name Name of the sound, the default sound is played if it doesn't exist.
+	 * @return Stream of the sound in FORMAT.
+	 * @throws UnsupportedAudioFileException If the file isn't audio that can be decoded.
+	 * @throws IOException If the file couldn't be read.
+	 */
+	public AudioInputStream open(String name) throws UnsupportedAudioFileException, IOException {
+		String resolved = resolve(name);
+		if (resolved == null)
+			throw new FileNotFoundException("There are no sounds");
+		
+		byte[] pcm;
+		synchronized (this) {
+			pcm = cache.get(resolved);
+		}
+		if (pcm != null)
+			return new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, pcm.length / FORMAT.getFrameSize());
+		
+		prefetch(resolved);
+		return decoder(sounds.get(resolved));
+	}
+	
+	/**
+	 * Decode a sound in the background if it isn't in memory yet.
+	 * @param name Name of the sound, the default sound is decoded if it doesn't exist.
+	 */
+	public synchronized void prefetch(String name) {
+		final String resolved = resolve(name);
+		if (resolved == null || cache.containsKey(resolved) || tooBig.contains(resolved) || !loading.add(resolved))
+			return;
+		
+		loader.execute(new Runnable() {
+			@Override
+			public void run() {
+				byte[] pcm = null;
+				try {
+					pcm = decode(sounds.get(resolved));
+				} catch (Exception e) {
+					LOG.warn("Couldn't decode sound " + resolved, e);
+				}
+				store(resolved, pcm);
+			}
+		});
+	}
+	
+	/**
+	 * Put a decoded sound in the cache, dropping the sounds used longest ago to make room.
+	 * @param name Name of the sound.
+	 * @param pcm Decoded sound, null if it was too big or couldn't be decoded.
+	 */
+	private synchronized void store(String name, byte[] pcm) {
+		loading.remove(name);
+		if (pcm == null) {
+			tooBig.add(name);
+			return;
+		}
+		
+		Iterator<byte[]> eldest = cache.values().iterator();
+		while (cachedBytes + pcm.length > cacheBytes && eldest.hasNext()) {
+			cachedBytes -= eldest.next().length;
+			eldest.remove();
+		}
+		cache.put(name, pcm);
+		cachedBytes += pcm.length;
+		Metrics.recordSoundCache(cachedBytes);
+	}
+	
+	/**
+	 * Decode a whole sound into memory.
+	 * @param url Where the sound is read from.
+	 * @return Sound in FORMAT, or null if it is bigger than the cache.
+	 * @throws UnsupportedAudioFileException If the file isn't audio that can be decoded.
+	 * @throws IOException If the file couldn't be read.
+	 */
+	private byte[] decode(URL url) throws UnsupportedAudioFileException, IOException {
+		AudioInputStream in = decoder(url);
+		try {
+			int frameSize = FORMAT.getFrameSize();
+			long frames = in.getFrameLength();
+			if (frames != AudioSystem.NOT_SPECIFIED && frames * frameSize > cacheBytes)
+				return null;
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					frames == AudioSystem.NOT_SPECIFIED ? 64 * 1024 : (int) (frames * frameSize));
+			byte[] chunk = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(chunk)) > 0) {
+				out.write(chunk, 0, n);
+				if (out.size() > cacheBytes)
+					return null;
+			}
+			byte[] pcm = out.toByteArray();
+			if (pcm.length % frameSize != 0)
+				pcm = Arrays.copyOf(pcm, pcm.length - pcm.length % frameSize);
+			if (pcm.length == 0)
+				throw new IOException("Sound " + url + " has no audio");
+			return pcm;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Open a sound file decoding it to FORMAT as it is read.
+	 * @param url Where the sound is read from.
+	 * @return Stream of the sound in FORMAT.
+	 * @throws UnsupportedAudioFileException If the file isn't audio that can be decoded.
+	 * @throws IOException If the file couldn't be read.
+	 */
+	private static AudioInputStream decoder(URL url) throws UnsupportedAudioFileException, IOException {
+		AudioInputStream in = AudioSystem.getAudioInputStream(url);
+		AudioFormat source = in.getFormat();
+		if (source.matches(FORMAT))
+			return in;
+		
+		if (source.getEncoding() != AudioFormat.Encoding.PCM_SIGNED
+				&& source.getEncoding() != AudioFormat.Encoding.PCM_UNSIGNED
+				&& source.getEncoding() != AudioFormat.Encoding.PCM_FLOAT) {
+			// Compressed, decode it to PCM before converting the rate and channels.
+			AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, source.getSampleRate(), 16,
+					source.getChannels(), source.getChannels() * 2, source.getSampleRate(), false);
+			in = AudioSystem.getAudioInputStream(pcm, in);
+		}
+		return AudioSystem.getAudioInputStream(FORMAT, in);
+	}
+}
@@ -0,0 +1,266 @@
+package Model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+
+import Util.Heartbeat;
+import Util.Log;
+import Util.Metrics;
+
+/**
+ * @author Brandon Blaschke
+ * Makes sure an alarm still sounds when the rest of the clock hangs. A thread of its own
+ * checks the heartbeats of the draw loop and the alarm check a few times a second. When
+ * either has been stuck longer than the stall time the stall is logged, with where the
+ * stuck thread is and which thread holds the lock it waits on, and counted in Metrics.
+ *
+ * Whatever is stuck, if the next alarm or snooze has been due for longer than the stall
+ * time without the alarm check firing it, the watchdog plays its sound straight through
+ * the AudioPlayer and shows the alarm as going off, so the snooze screen comes up. Nothing
+ * it reads from the model takes the model's lock, so a thread hung holding that lock
+ * can't stop it. When the clock recovers, the alarm check fires the same alarm as usual
+ * and the player keeps playing the sound already going.
+ *
+ * The stall time is set in milliseconds with -Dalarmclock.watchdog.millis, 0 turns the
+ * watchdog off.
+ */
+public class Watchdog {
+	
+	/**
+	 * Log for stalls.
+	 */
+	private static final Log LOG = Log.site("Watchdog");
+	
+	/**
+	 * Log for alarms the watchdog played, apart from the stalls so neither holds back the other.
+	 */
+	private static final Log FIRE_LOG = Log.site("Watchdog.fire");
+	
+	/**
+	 * Stall time unless set with -Dalarmclock.watchdog.millis. The draw loop finishes a
+	 * frame at least once a second even when idle.
+	 */
+	private static final long DEFAULT_STALL_MILLIS = 5000;
+	
+	/**
+	 * Time between checks.
+	 */
+	private static final long TICK_MILLIS = 250;
+	
+	/**
+	 * Model whose alarms are watched.
+	 */
+	private final ClockModel clockModel;
+	
+	/**
+	 * Heartbeat of the draw loop.
+	 */
+	private final Heartbeat frames;
+	
+	/**
+	 * Heartbeat of the alarm check.
+	 */
+	private final Heartbeat checks;
+	
+	/**
+	 * Longest time either may be stuck before it is a stall.
+	 */
+	private final long stallMillis;
+	
+	/**
+	 * True while the draw loop is stalled, only used by the watchdog thread.
+	 */
+	private boolean frameStalled;
+	
+	/**
+	 * True while the alarm check is stalled, only used by the watchdog thread.
+	 */
+	private boolean checkStalled;
+	
+	/**
+	 * Due time of the last alarm the watchdog played, so it is only played once.
+	 */
+	private long firedFor;
+	
+	/**
+	 * Thread doing the checks, null until started.
+	 */
+	private Thread thread;
+	
+	/**
+	 * True while the thread should keep running.
+	 */
+	private volatile boolean running;
+	
+	/**
+	 * Create a Watchdog with the stall time set by the system property.
+	 * @param theModel Model whose alarms are watched.
+	 * @param frames Heartbeat of the draw loop.
+	 */
+	public Watchdog(ClockModel theModel, Heartbeat frames) {
+		this(theModel, frames, Long.getLong("alarmclock.watchdog.millis", DEFAULT_STALL_MILLIS));
+	}
+	
+	/**
+	 * Create a Watchdog.
+	 * @param theModel Model whose alarms are watched.
+	 * @param frames Heartbeat of the draw loop.
+	 * @param stallMillis Longest time either may be stuck, 0 or less to never start.
+	 */
+	public Watchdog(ClockModel theModel, Heartbeat frames, long stallMillis) {
+		clockModel = theModel;
+		this.frames = frames;
+		checks = theModel.getCheckHeartbeat();
+		this.stallMillis = stallMillis;
+		firedFor = Long.MIN_VALUE;
+	}
+	
+	/**
+	 * Start watching.
+	 * @return True if started, false if turned off.
+	 */
+	public synchronized boolean start() {
+		if (stallMillis <= 0 || thread != null)
+			return false;
+		
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (running) {
+						Thread.sleep(TICK_MILLIS);
+						check(System.nanoTime());
+					}
+				} catch (InterruptedException e) {
+					// Stopped.
+				}
+			}
+		}, "watchdog");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+		return true;
+	}
+	
+	/**
+	 * Stop watching.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+	
+	/**
+	 * Check the heartbeats and the next alarm once.
+	 * @param now System.nanoTime() now.
+	 */
+	void check(long now) {
+		long stallNanos = stallMillis * 1000000L;
+		
+		// The draw loop is stalled if it hasn't finished a frame in time, stuck in one or not.
+		long sinceFrame = frames.sinceEndNanos(now);
+		if ((sinceFrame > stallNanos) != frameStalled) {
+			frameStalled = !frameStalled;
+			report(frames, frameStalled, sinceFrame);
+		}
+		
+		// The alarm check only runs when something is due, it is stalled if stuck in one.
+		long busy = checks.busyNanos(now);
+		if ((busy > stallNanos) != checkStalled) {
+			checkStalled = !checkStalled;
+			report(checks, checkStalled, busy);
+		}
+		
+		long due = clockModel.nextFireMillis();
+		if (due == Long.MAX_VALUE || due == firedFor || clockModel.isChangingClock()
+				|| clockModel.getClock().millis() - due <= stallMillis)
+			return;
+		
+		firedFor = due;
+		Metrics.recordWatchdogFire();
+		FIRE_LOG.error("Alarm due at " + Instant.ofEpochMilli(due) + " wasn't fired by the alarm check, playing it",
+				stuckAt(checks.getThread()));
+		fire(due, clockModel.nextFireSound());
+	}
+	
+	/**
+	 * Play a sound and show the alarm as going off on a thread of its own, so the
+	 * watchdog keeps going if the player or the model is stuck too.
+	 * @param due Time the alarm was due.
+	 * @param sound Name of the sound, null for the default sound.
+	 */
+	private void fire(final long due, final String sound) {
+		Thread player = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				clockModel.getAudioPlayer().play(due, sound);
+				clockModel.watchdogFired();
+			}
+		}, "watchdog-alarm");
+		player.setDaemon(true);
+		player.setPriority(Thread.MAX_PRIORITY);
+		player.start();
+	}
+	
+	/**
+	 * Log a stall starting or ending.
+	 * @param beat Heartbeat of the work.
+	 * @param stalled True if it stalled, false if it recovered.
+	 * @param nanos How long it has been stuck.
+	 */
+	private void report(Heartbeat beat, boolean stalled, long nanos) {
+		String time = String.format("%.1fs", nanos / 1e9);
+		if (stalled) {
+			Metrics.recordWatchdogStall();
+			LOG.error(beat.getName() + " stalled for " + time, stuckAt(beat.getThread()));
+		} else {
+			LOG.info(beat.getName() + " recovered");
+		}
+	}
+	
+	/**
+	 * Where a thread is stuck, and where the thread holding the lock it waits on is.
+	 * @param stuck Thread to look at, may be null.
+	 * @return Exception carrying the stack of the thread, null if there is no thread.
+	 */
+	private static Throwable stuckAt(Thread stuck) {
+		if (stuck == null)
+			return null;
+		
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		ThreadInfo info = threads.getThreadInfo(stuck.getId(), Integer.MAX_VALUE);
+		if (info == null)
+			return null;
+		
+		ThreadInfo owner = info.getLockOwnerId() < 0 ? null
+				: threads.getThreadInfo(info.getLockOwnerId(), Integer.MAX_VALUE);
+		return new Stall(info, owner == null ? null : new Stall(owner, null));
+	}
+	
+	/**
+	 * Stack of a thread at the time of a stall, logged like an exception.
+	 */
+	private static class Stall extends Throwable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Create a Stall.
+		 * @param info State and stack of the thread.
+		 * @param owner Stall of the thread holding the lock it waits on, may be null.
+		 */
+		Stall(ThreadInfo info, Stall owner) {
+			super("Thread " + info.getThreadName() + " is " + info.getThreadState()
+					+ (info.getLockName() == null ? "" : " on " + info.getLockName())
+					+ (info.getLockOwnerName() == null ? "" : " held by " + info.getLockOwnerName()),
+					owner, false, true);
+			setStackTrace(info.getStackTrace());
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package Util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author Brandon Blaschke
+ * Makes named daemon threads for the background work, so none of it keeps the program
+ * running after the window closes.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	
+	/**
+	 * Name of the threads.
+	 */
+	private final String name;
+	
+	/**
+	 * Priority of the threads.
+	 */
+	private final int priority;
+	
+	/**
+	 * Create a DaemonThreadFactory making threads of normal priority.
+	 * @param name Name of the threads.
+	 */
+	public DaemonThreadFactory(String name) {
+		this(name, Thread.NORM_PRIORITY);
+	}
+	
+	/**
+	 * Create a DaemonThreadFactory.
+	 * @param name Name of the threads.
+	 * @param priority Priority of the threads.
+	 */
+	public DaemonThreadFactory(String name, int priority) {
+		this.name = name;
+		this.priority = priority;
+	}
+	
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, name);
+		thread.setDaemon(true);
+		thread.setPriority(priority);
+		return thread;
+	}
+}
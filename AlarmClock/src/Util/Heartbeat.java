@@ -0,0 +1,108 @@
+package Util;
+
+/**
+ * @author Brandon Blaschke
+ * Heartbeat of a piece of work done over and over, such as drawing a frame, for a
+ * watchdog to check from another thread. The work calls begin() when it starts and end()
+ * when it finishes, which only stamps the time, so it costs next to nothing.
+ */
+public class Heartbeat {
+	
+	/**
+	 * Name of the work, used when reporting a stall.
+	 */
+	private final String name;
+	
+	/**
+	 * System.nanoTime() the work last finished, or when the heartbeat was made.
+	 */
+	private volatile long ended;
+	
+	/**
+	 * System.nanoTime() the running work started, 0 while not running.
+	 */
+	private volatile long began;
+	
+	/**
+	 * Thread that last did the work.
+	 */
+	private volatile Thread thread;
+	
+	/**
+	 * Create a Heartbeat.
+	 * @param name Name of the work, e.g. "draw".
+	 */
+	public Heartbeat(String name) {
+		this.name = name;
+		ended = System.nanoTime();
+	}
+	
+	/**
+	 * Mark the work starting.
+	 */
+	public void begin() {
+		begin(System.nanoTime());
+	}
+	
+	/**
+	 * Mark the work starting, with a time the caller already read.
+	 * @param now System.nanoTime() now.
+	 */
+	public void begin(long now) {
+		Thread current = Thread.currentThread();
+		if (thread != current)
+			thread = current;
+		began = now;
+	}
+	
+	/**
+	 * Mark the work finishing.
+	 */
+	public void end() {
+		end(System.nanoTime());
+	}
+	
+	/**
+	 * Mark the work finishing, with a time the caller already read.
+	 * @param now System.nanoTime() now.
+	 */
+	public void end(long now) {
+		ended = now;
+		began = 0;
+	}
+	
+	/**
+	 * Name of the work.
+	 * @return Name.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * How long the running work has been going.
+	 * @param now System.nanoTime() now.
+	 * @return Nanoseconds since it began, 0 if it isn't running.
+	 */
+	public long busyNanos(long now) {
+		long start = began;
+		return start == 0 ? 0 : now - start;
+	}
+	
+	/**
+	 * How long since the work last finished.
+	 * @param now System.nanoTime() now.
+	 * @return Nanoseconds since it ended.
+	 */
+	public long sinceEndNanos(long now) {
+		return now - ended;
+	}
+	
+	/**
+	 * Thread that last did the work, to see where it is stuck.
+	 * @return Thread, null if the work never ran.
+	 */
+	public Thread getThread() {
+		return thread;
+	}
+}
@@ -0,0 +1,140 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Brandon Blaschke
+ * Histogram of durations in microseconds. Each bucket covers twice the range of the one
+ * before it. Recording never locks, so it can be called from any thread.
+ */
+public class LatencyHistogram {
+	
+	/**
+	 * Number of buckets, the last one holds everything over about 36 minutes.
+	 */
+	private static final int BUCKETS = 32;
+	
+	/**
+	 * Count of values in each bucket. Bucket i holds values below 2^i microseconds.
+	 */
+	private final AtomicLongArray counts;
+	
+	/**
+	 * Number of values recorded.
+	 */
+	private final AtomicLong count;
+	
+	/**
+	 * Sum of the values recorded in microseconds.
+	 */
+	private final AtomicLong sum;
+	
+	/**
+	 * Largest value recorded in microseconds.
+	 */
+	private final AtomicLong max;
+	
+	/**
+	 * Create an empty LatencyHistogram.
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+	
+	/**
+	 * Record a duration.
+	 * @param nanos Duration in nanoseconds, negative values count as zero.
+	 */
+	public void recordNanos(long nanos) {
+		record(Math.max(0, nanos) / 1000);
+	}
+	
+	/**
+	 * Record a duration.
+	 * @param micros Duration in microseconds.
+	 */
+	public void record(long micros) {
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+		
+		long current = max.get();
+		while (micros > current && !max.compareAndSet(current, micros)) {
+			current = max.get();
+		}
+	}
+	
+	/**
+	 * Number of values recorded.
+	 * @return Number of values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * Average of the values recorded.
+	 * @return Average in microseconds, 0 if nothing was recorded.
+	 */
+	public long getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / n;
+	}
+	
+	/**
+	 * Largest value recorded.
+	 * @return Largest value in microseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Estimate a percentile from the buckets. The result is the upper bound of the bucket
+	 * the percentile falls in, so it is at most twice the real value.
+	 * @param percentile Percentile between 0 and 100.
+	 * @return Upper bound of the percentile in microseconds, 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0)
+			return 0;
+		
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(1, rank))
+				return Math.min(1L << i, getMax());
+		}
+		return getMax();
+	}
+	
+	/**
+	 * Clear all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%dus p50=%dus p99=%dus max=%dus",
+				getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+	}
+}
@@ -0,0 +1,436 @@
+package Util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Brandon Blaschke
+ * Log that is safe to call from the draw loop. A message is put in a fixed size ring of
+ * entries made once at startup and a background thread writes it out, so logging never
+ * waits on the disk or the console. If the ring is full the message is dropped and the
+ * drop counted rather than waiting.
+ *
+ * Each place that logs has its own Log, made once with site() and kept in a static
+ * field. A site logs at most BURST messages in a row and then one every INTERVAL_MILLIS,
+ * and the same exception thrown again from a site is only logged again after
+ * REPEAT_MILLIS. What is held back is counted and the count is written with the next
+ * message from the site, so an exception thrown every frame is a few lines rather than a
+ * flood.
+ *
+ * Messages go to System.err and to a log file, ~/.alarmclock/logs/alarmclock.log unless
+ * set with -Dalarmclock.log. When the file reaches -Dalarmclock.log.bytes it is renamed
+ * to alarmclock.log.1, the older files moving up and the oldest being deleted.
+ */
+public final class Log {
+	
+	/**
+	 * Messages that can wait in the ring, a power of two.
+	 */
+	private static final int CAPACITY = 1024;
+	
+	/**
+	 * Messages a site logs in a row before being limited.
+	 */
+	private static final int BURST = 5;
+	
+	/**
+	 * Time a limited site waits between messages.
+	 */
+	private static final long INTERVAL_MILLIS = 10000;
+	
+	/**
+	 * Time before the same exception from a site is logged again.
+	 */
+	private static final long REPEAT_MILLIS = 60000;
+	
+	/**
+	 * Size a log file grows to before rotating unless set with -Dalarmclock.log.bytes.
+	 */
+	private static final long DEFAULT_FILE_BYTES = 1024 * 1024;
+	
+	/**
+	 * Old log files kept besides the current one.
+	 */
+	private static final int KEPT_FILES = 3;
+	
+	/**
+	 * Longest time the writer sleeps when there is nothing to write.
+	 */
+	private static final long IDLE_NANOS = 100000000L;
+	
+	/**
+	 * Levels of a message, indexes into LEVELS.
+	 */
+	private static final int INFO = 0;
+	private static final int WARN = 1;
+	private static final int ERROR = 2;
+	
+	/**
+	 * Name of each level as written.
+	 */
+	private static final String[] LEVELS = {"INFO", "WARN", "ERROR"};
+	
+	/**
+	 * Entries of the ring, reused for every message.
+	 */
+	private static final Entry[] entries = new Entry[CAPACITY];
+	
+	/**
+	 * Turn of each entry: equal to the position it is written at when free, one more once
+	 * written, and CAPACITY more once read.
+	 */
+	private static final AtomicLongArray turns = new AtomicLongArray(CAPACITY);
+	
+	/**
+	 * Position the next message is written at.
+	 */
+	private static final AtomicLong tail = new AtomicLong();
+	
+	/**
+	 * Position the writer thread reads next, everything before it has been written.
+	 */
+	private static volatile long head;
+	
+	/**
+	 * Messages dropped because the ring was full, not yet reported.
+	 */
+	private static final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * Thread writing the messages out.
+	 */
+	private static final Thread writer;
+	
+	static {
+		for (int i = 0; i < CAPACITY; i++) {
+			entries[i] = new Entry();
+			turns.set(i, i);
+		}
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "log-writer");
+		writer.setDaemon(true);
+		writer.setPriority(Thread.MIN_PRIORITY);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush(1000);
+			}
+		}, "log-flush"));
+	}
+	
+	/**
+	 * Name of the site, shown with each message.
+	 */
+	private final String name;
+	
+	/**
+	 * Messages the site may log before being limited, refilled over time.
+	 */
+	private double tokens;
+	
+	/**
+	 * System.currentTimeMillis() the tokens were last refilled.
+	 */
+	private long refilled;
+	
+	/**
+	 * Last exception the site logged, to spot the same one thrown again.
+	 */
+	private Throwable last;
+	
+	/**
+	 * System.currentTimeMillis() the last exception was logged.
+	 */
+	private long lastLogged;
+	
+	/**
+	 * Messages held back since the last one logged.
+	 */
+	private int suppressed;
+	
+	private Log(String name) {
+		this.name = name;
+		tokens = BURST;
+	}
+	
+	/**
+	 * Make the Log for a place that logs. Keep it in a static field.
+	 * @param name Name shown with its messages, e.g. "Main.draw".
+	 * @return Log for the site.
+	 */
+	public static Log site(String name) {
+		return new Log(name);
+	}
+	
+	/**
+	 * Log information.
+	 * @param message Message.
+	 */
+	public void info(String message) {
+		log(INFO, message, null);
+	}
+	
+	/**
+	 * Log something that went wrong but was handled.
+	 * @param message Message.
+	 * @param thrown Exception, may be null.
+	 */
+	public void warn(String message, Throwable thrown) {
+		log(WARN, message, thrown);
+	}
+	
+	/**
+	 * Log a failure.
+	 * @param message Message.
+	 * @param thrown Exception, may be null.
+	 */
+	public void error(String message, Throwable thrown) {
+		log(ERROR, message, thrown);
+	}
+	
+	/**
+	 * Put a message in the ring if the site's limits let it through.
+	 */
+	private void log(int level, String message, Throwable thrown) {
+		long now = System.currentTimeMillis();
+		int held;
+		synchronized (this) {
+			if (thrown != null && last != null && now - lastLogged < REPEAT_MILLIS && sameAs(thrown, last)) {
+				suppressed++;
+				return;
+			}
+			tokens = Math.min(BURST, tokens + (now - refilled) / (double) INTERVAL_MILLIS);
+			refilled = now;
+			if (tokens < 1) {
+				suppressed++;
+				return;
+			}
+			tokens--;
+			if (thrown != null) {
+				last = thrown;
+				lastLogged = now;
+			}
+			held = suppressed;
+			suppressed = 0;
+		}
+		
+		long pos = tail.get();
+		while (true) {
+			long turn = turns.get((int) pos & (CAPACITY - 1));
+			if (turn == pos) {
+				if (tail.compareAndSet(pos, pos + 1))
+					break;
+			} else if (turn < pos) {
+				// Full, the writer has fallen behind.
+				dropped.incrementAndGet();
+				return;
+			} else {
+				pos = tail.get();
+			}
+		}
+		
+		int slot = (int) pos & (CAPACITY - 1);
+		Entry entry = entries[slot];
+		entry.level = level;
+		entry.millis = now;
+		entry.site = name;
+		entry.message = message;
+		entry.thrown = thrown;
+		entry.suppressed = held;
+		entry.thread = Thread.currentThread().getName();
+		turns.set(slot, pos + 1);
+		LockSupport.unpark(writer);
+	}
+	
+	/**
+	 * Checks if two exceptions are the same problem: the same type and message thrown
+	 * from the same place.
+	 */
+	private static boolean sameAs(Throwable a, Throwable b) {
+		if (a == b)
+			return true;
+		if (a.getClass() != b.getClass() || !String.valueOf(a.getMessage()).equals(String.valueOf(b.getMessage())))
+			return false;
+		StackTraceElement[] x = a.getStackTrace();
+		StackTraceElement[] y = b.getStackTrace();
+		return x.length == 0 ? y.length == 0 : y.length > 0 && x[0].equals(y[0]);
+	}
+	
+	/**
+	 * Wait until the messages logged so far are written.
+	 * @param timeoutMillis Longest time to wait.
+	 * @return True if they were written in time.
+	 */
+	public static boolean flush(long timeoutMillis) {
+		long target = tail.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (head < target) {
+			if (System.currentTimeMillis() > deadline)
+				return false;
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(1000000);
+		}
+		return true;
+	}
+	
+	/**
+	 * Write messages from the ring as they arrive.
+	 */
+	private static void writeLoop() {
+		LogFile file = new LogFile(new File(System.getProperty("alarmclock.log",
+				new File(System.getProperty("user.home"), ".alarmclock/logs/alarmclock.log").getPath())),
+				Long.getLong("alarmclock.log.bytes", DEFAULT_FILE_BYTES));
+		SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		StringBuilder line = new StringBuilder();
+		while (true) {
+			int slot = (int) head & (CAPACITY - 1);
+			if (turns.get(slot) != head + 1) {
+				long lost = dropped.getAndSet(0);
+				if (lost > 0) {
+					line.setLength(0);
+					line.append(time.format(new Date())).append(" WARN  Log: ").append(lost)
+							.append(" messages dropped, the log fell behind\n");
+					file.write(line.toString());
+				}
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			
+			Entry entry = entries[slot];
+			line.setLength(0);
+			line.append(time.format(new Date(entry.millis))).append(' ').append(LEVELS[entry.level]);
+			for (int i = LEVELS[entry.level].length(); i < 6; i++) {
+				line.append(' ');
+			}
+			line.append(entry.site).append(" [").append(entry.thread).append("]: ").append(entry.message);
+			if (entry.suppressed > 0)
+				line.append(" (").append(entry.suppressed).append(" more held back since the last)");
+			line.append('\n');
+			if (entry.thrown != null)
+				line.append(stackTrace(entry.thrown));
+			entry.message = null;
+			entry.thrown = null;
+			turns.set(slot, head + CAPACITY);
+			
+			file.write(line.toString());
+			head++;
+		}
+	}
+	
+	/**
+	 * Stack trace of an exception as printStackTrace() writes it.
+	 */
+	private static String stackTrace(Throwable thrown) {
+		StringWriter out = new StringWriter();
+		thrown.printStackTrace(new PrintWriter(out));
+		return out.toString();
+	}
+	
+	/**
+	 * One message waiting in the ring.
+	 */
+	private static class Entry {
+		int level;
+		long millis;
+		String site;
+		String message;
+		Throwable thrown;
+		int suppressed;
+		String thread;
+	}
+	
+	/**
+	 * Log file that is rotated when it grows too big, also copied to System.err. Each write
+	 * is flushed, messages being few once limited. Only used by the writer thread.
+	 */
+	private static class LogFile {
+		
+		/**
+		 * File being written.
+		 */
+		private final File file;
+		
+		/**
+		 * Size the file grows to before rotating.
+		 */
+		private final long maxBytes;
+		
+		/**
+		 * Writer to the file, null if it couldn't be opened.
+		 */
+		private Writer out;
+		
+		/**
+		 * Bytes in the file.
+		 */
+		private long bytes;
+		
+		/**
+		 * True once the file has failed, after which only System.err is written.
+		 */
+		private boolean failed;
+		
+		LogFile(File file, long maxBytes) {
+			this.file = file;
+			this.maxBytes = maxBytes;
+		}
+		
+		/**
+		 * Write text, rotating the file first if it would go over its size.
+		 */
+		void write(String text) {
+			System.err.print(text);
+			if (failed)
+				return;
+			
+			try {
+				byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+				if (out == null) {
+					File dir = file.getAbsoluteFile().getParentFile();
+					if (dir != null)
+						dir.mkdirs();
+					bytes = file.length();
+					out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+				}
+				if (bytes > 0 && bytes + encoded.length > maxBytes)
+					rotate();
+				out.write(text);
+				out.flush();
+				bytes += encoded.length;
+			} catch (IOException e) {
+				failed = true;
+				System.err.println("Log: can't write " + file + ", logging to the console only: " + e);
+			}
+		}
+		
+		/**
+		 * Move each old file up one, dropping the oldest, and start a new file.
+		 */
+		private void rotate() throws IOException {
+			out.close();
+			new File(file.getPath() + "." + KEPT_FILES).delete();
+			for (int i = KEPT_FILES - 1; i >= 1; i--) {
+				new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+			}
+			file.renameTo(new File(file.getPath() + ".1"));
+			out = new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8);
+			bytes = 0;
+		}
+	}
+}
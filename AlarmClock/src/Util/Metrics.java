@@ -0,0 +1,335 @@
+package Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Brandon Blaschke
+ * Runtime metrics of the clock. Recording never locks, so it can be done on the drawing
+ * and alarm threads. The metrics can be read over JMX as AlarmClock:type=Metrics and as
+ * plain text from http://127.0.0.1:&lt;port&gt;/metrics.
+ */
+public final class Metrics implements MetricsMXBean {
+	
+	/**
+	 * Log for the metrics servers.
+	 */
+	private static final Log LOG = Log.site("Metrics");
+	
+	/**
+	 * Port of the plain text endpoint unless set with -Dalarmclock.metrics.port, 0 turns it off.
+	 */
+	private static final int DEFAULT_PORT = 9464;
+	
+	/**
+	 * Time to draw each frame.
+	 */
+	public static final LatencyHistogram FRAME_TIME = new LatencyHistogram();
+	
+	/**
+	 * Time from the start of each wall-clock second to the first frame showing it.
+	 */
+	public static final LatencyHistogram SECOND_LAG = new LatencyHistogram();
+	
+	/**
+	 * Time each alarm check took.
+	 */
+	public static final LatencyHistogram CHECK_ALARM = new LatencyHistogram();
+	
+	/**
+	 * Time from each alarm's scheduled time to its first audio reaching the sound card.
+	 */
+	public static final LatencyHistogram FIRE_SKEW = new LatencyHistogram();
+	
+	/**
+	 * Time each write of the alarms to disk took.
+	 */
+	public static final LatencyHistogram SAVE_LATENCY = new LatencyHistogram();
+	
+	/**
+	 * Bytes written to disk saving the alarms.
+	 */
+	private static final AtomicLong savedBytes = new AtomicLong();
+	
+	/**
+	 * Number of times the sound card was waiting on audio that wasn't read yet.
+	 */
+	private static final AtomicLong audioUnderruns = new AtomicLong();
+	
+	/**
+	 * Bytes of decoded sound held in memory by the sound library.
+	 */
+	private static final AtomicLong soundCacheBytes = new AtomicLong();
+	
+	/**
+	 * Number of times the watchdog saw the draw loop or the alarm check stall.
+	 */
+	private static final AtomicLong watchdogStalls = new AtomicLong();
+	
+	/**
+	 * Number of alarms the watchdog had to start itself.
+	 */
+	private static final AtomicLong watchdogFires = new AtomicLong();
+	
+	/**
+	 * Plain text endpoint, null until started.
+	 */
+	private static HttpServer server;
+	
+	private Metrics() {}
+	
+	/**
+	 * Record a write of the alarms to disk.
+	 * @param nanos Time the write took.
+	 * @param bytes Number of bytes written.
+	 */
+	public static void recordSave(long nanos, int bytes) {
+		SAVE_LATENCY.recordNanos(nanos);
+		savedBytes.addAndGet(bytes);
+	}
+	
+	/**
+	 * Record the sound card waiting on audio.
+	 */
+	public static void recordAudioUnderrun() {
+		audioUnderruns.incrementAndGet();
+	}
+	
+	/**
+	 * Record the size of the sound cache after it changed.
+	 * @param bytes Bytes of decoded sound in memory.
+	 */
+	public static void recordSoundCache(long bytes) {
+		soundCacheBytes.set(bytes);
+	}
+	
+	/**
+	 * Record the watchdog seeing a stall.
+	 */
+	public static void recordWatchdogStall() {
+		watchdogStalls.incrementAndGet();
+	}
+	
+	/**
+	 * Record the watchdog starting an alarm the alarm check missed.
+	 */
+	public static void recordWatchdogFire() {
+		watchdogFires.incrementAndGet();
+	}
+	
+	/**
+	 * Register the metrics with JMX and start the plain text endpoint. Does nothing if
+	 * already started.
+	 */
+	public static synchronized void start() {
+		if (server != null)
+			return;
+		
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(),
+					new ObjectName("AlarmClock:type=Metrics"));
+		} catch (Exception e) {
+			LOG.warn("Couldn't register the metrics MBean", e);
+		}
+		
+		int port = Integer.getInteger("alarmclock.metrics.port", DEFAULT_PORT);
+		if (port <= 0)
+			return;
+		
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/metrics", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					byte[] body = report().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				}
+			});
+			server.setExecutor(Executors.newSingleThreadExecutor(new DaemonThreadFactory("metrics-http")));
+			server.start();
+		} catch (IOException e) {
+			LOG.warn("Couldn't serve the metrics over HTTP", e);
+		}
+	}
+	
+	/**
+	 * Every metric as plain text, one name and value per line.
+	 * @return Metrics report.
+	 */
+	public static String report() {
+		StringBuilder sb = new StringBuilder();
+		appendHistogram(sb, "frame_time", FRAME_TIME);
+		appendHistogram(sb, "second_lag", SECOND_LAG);
+		appendHistogram(sb, "check_alarm", CHECK_ALARM);
+		appendHistogram(sb, "fire_skew", FIRE_SKEW);
+		appendHistogram(sb, "save_latency", SAVE_LATENCY);
+		appendValue(sb, "saved_bytes", savedBytes.get());
+		appendValue(sb, "audio_underruns", audioUnderruns.get());
+		appendValue(sb, "sound_cache_bytes", soundCacheBytes.get());
+		appendValue(sb, "watchdog_stalls", watchdogStalls.get());
+		appendValue(sb, "watchdog_fires", watchdogFires.get());
+		
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		appendValue(sb, "heap_used_bytes", heap.getUsed());
+		appendValue(sb, "heap_max_bytes", heap.getMax());
+		return sb.toString();
+	}
+	
+	private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram histogram) {
+		appendValue(sb, name + "_count", histogram.getCount());
+		appendValue(sb, name + "_mean_us", histogram.getMean());
+		appendValue(sb, name + "_p50_us", histogram.getPercentile(50));
+		appendValue(sb, name + "_p90_us", histogram.getPercentile(90));
+		appendValue(sb, name + "_p99_us", histogram.getPercentile(99));
+		appendValue(sb, name + "_max_us", histogram.getMax());
+	}
+	
+	private static void appendValue(StringBuilder sb, String name, long value) {
+		sb.append("alarmclock_").append(name).append(' ').append(value).append('\n');
+	}
+	
+	@Override
+	public long getFrames() {
+		return FRAME_TIME.getCount();
+	}
+	
+	@Override
+	public long getFrameTimeP50Micros() {
+		return FRAME_TIME.getPercentile(50);
+	}
+	
+	@Override
+	public long getFrameTimeP99Micros() {
+		return FRAME_TIME.getPercentile(99);
+	}
+	
+	@Override
+	public long getFrameTimeMaxMicros() {
+		return FRAME_TIME.getMax();
+	}
+	
+	@Override
+	public long getSecondLagP99Micros() {
+		return SECOND_LAG.getPercentile(99);
+	}
+	
+	@Override
+	public long getSecondLagMaxMicros() {
+		return SECOND_LAG.getMax();
+	}
+	
+	@Override
+	public long getAlarmChecks() {
+		return CHECK_ALARM.getCount();
+	}
+	
+	@Override
+	public long getCheckAlarmP99Micros() {
+		return CHECK_ALARM.getPercentile(99);
+	}
+	
+	@Override
+	public long getCheckAlarmMaxMicros() {
+		return CHECK_ALARM.getMax();
+	}
+	
+	@Override
+	public long getAlarmsFired() {
+		return FIRE_SKEW.getCount();
+	}
+	
+	@Override
+	public long getFireSkewP50Micros() {
+		return FIRE_SKEW.getPercentile(50);
+	}
+	
+	@Override
+	public long getFireSkewP99Micros() {
+		return FIRE_SKEW.getPercentile(99);
+	}
+	
+	@Override
+	public long getFireSkewMaxMicros() {
+		return FIRE_SKEW.getMax();
+	}
+	
+	@Override
+	public long getSaves() {
+		return SAVE_LATENCY.getCount();
+	}
+	
+	@Override
+	public long getSaveLatencyP99Micros() {
+		return SAVE_LATENCY.getPercentile(99);
+	}
+	
+	@Override
+	public long getSaveLatencyMaxMicros() {
+		return SAVE_LATENCY.getMax();
+	}
+	
+	@Override
+	public long getSavedBytes() {
+		return savedBytes.get();
+	}
+	
+	@Override
+	public long getAudioUnderruns() {
+		return audioUnderruns.get();
+	}
+	
+	@Override
+	public long getSoundCacheBytes() {
+		return soundCacheBytes.get();
+	}
+	
+	@Override
+	public long getWatchdogStalls() {
+		return watchdogStalls.get();
+	}
+	
+	@Override
+	public long getWatchdogFires() {
+		return watchdogFires.get();
+	}
+	
+	@Override
+	public long getHeapUsedBytes() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	@Override
+	public long getHeapMaxBytes() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+	}
+	
+	@Override
+	public void reset() {
+		FRAME_TIME.reset();
+		SECOND_LAG.reset();
+		CHECK_ALARM.reset();
+		FIRE_SKEW.reset();
+		SAVE_LATENCY.reset();
+		savedBytes.set(0);
+		audioUnderruns.set(0);
+		watchdogStalls.set(0);
+		watchdogFires.set(0);
+	}
+}
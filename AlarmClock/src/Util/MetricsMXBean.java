@@ -0,0 +1,43 @@
+package Util;
+
+/**
+ * @author Brandon Blaschke
+ * Runtime metrics of the clock as seen over JMX. Durations are in microseconds.
+ */
+public interface MetricsMXBean {
+	
+	long getFrames();
+	long getFrameTimeP50Micros();
+	long getFrameTimeP99Micros();
+	long getFrameTimeMaxMicros();
+	long getSecondLagP99Micros();
+	long getSecondLagMaxMicros();
+	
+	long getAlarmChecks();
+	long getCheckAlarmP99Micros();
+	long getCheckAlarmMaxMicros();
+	
+	long getAlarmsFired();
+	long getFireSkewP50Micros();
+	long getFireSkewP99Micros();
+	long getFireSkewMaxMicros();
+	
+	long getSaves();
+	long getSaveLatencyP99Micros();
+	long getSaveLatencyMaxMicros();
+	long getSavedBytes();
+	
+	long getAudioUnderruns();
+	long getSoundCacheBytes();
+	
+	long getWatchdogStalls();
+	long getWatchdogFires();
+	
+	long getHeapUsedBytes();
+	long getHeapMaxBytes();
+	
+	/**
+	 * Clear every recorded metric.
+	 */
+	void reset();
+}
@@ -0,0 +1,71 @@
+package Util;
+
+import java.util.ArrayList;
+
+/**
+ * @author Brandon Blaschke
+ * Records how long each phase of starting the clock took, so slow startups can be
+ * broken down. Phases can be marked from any thread.
+ */
+public final class StartupTimer {
+	
+	private StartupTimer() {}
+	
+	/**
+	 * System.nanoTime() when the program started.
+	 */
+	private static long start = System.nanoTime();
+	
+	/**
+	 * System.nanoTime() when the last phase was marked.
+	 */
+	private static long last = start;
+	
+	/**
+	 * Names and durations of the phases, in the order they finished.
+	 */
+	private static ArrayList<String> phases = new ArrayList<String>();
+	
+	/**
+	 * Start timing from now.
+	 */
+	public static synchronized void start() {
+		start = System.nanoTime();
+		last = start;
+		phases.clear();
+	}
+	
+	/**
+	 * Mark the end of a phase that started when the previous phase ended.
+	 * @param phase Name of the phase.
+	 */
+	public static synchronized void mark(String phase) {
+		long now = System.nanoTime();
+		phases.add(String.format("%s %dms", phase, (now - last) / 1000000));
+		last = now;
+	}
+	
+	/**
+	 * Record a phase that ran alongside the others, such as work on a background thread.
+	 * @param phase Name of the phase.
+	 * @param startNanos System.nanoTime() when the phase started.
+	 */
+	public static synchronized void record(String phase, long startNanos) {
+		long now = System.nanoTime();
+		phases.add(String.format("%s %dms (background, done at %dms)", phase,
+				(now - startNanos) / 1000000, (now - start) / 1000000));
+	}
+	
+	/**
+	 * Breakdown of the phases so far.
+	 * @return One line listing each phase and the total time since start.
+	 */
+	public static synchronized String report() {
+		StringBuilder sb = new StringBuilder("Startup: ");
+		for (String phase : phases) {
+			sb.append(phase).append(", ");
+		}
+		sb.append(String.format("total %dms", (System.nanoTime() - start) / 1000000));
+		return sb.toString();
+	}
+}
@@ -2,20 +2,29 @@ package View;
 
 import static View.Constants.*;
 
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Locale;
 
 import Controller.Controller;
-import Main.Main;
 import Model.Alarm;
+import Model.SoundLibrary;
+import Util.Log;
 import processing.core.PApplet;
 import processing.core.PFont;
+import processing.core.PGraphics;
 
 /** Represents a AlarmWidget on the screen.
  * @author Brandon Blaschke
  */
 public class AlarmWidget {
 	
+	/**
+	 * Log for changes to the alarm that failed.
+	 */
+	private static final Log LOG = Log.site("AlarmWidget");
+	
 	/*
 	 * Parent object for PApplet.
 	 */
@@ -32,143 +41,308 @@ public class AlarmWidget {
 	private int y;
 	
 	/**
-	 * ClockModel in order to manipulate clock.
+	 * Alarm shown, replaced with the latest one whenever the alarms change.
 	 */
-	public Alarm alarm;
+	private Alarm alarm;
 	
 	/**
 	 * Controller for alarm model.
 	 */
 	private Controller controller;
 	
+	/**
+	 * Sounds the alarm can play.
+	 */
+	private SoundLibrary sounds;
+	
 	/**
 	 * Formatter for alarm
 	 */
 	private DateTimeFormatter alarmFormatter;
 	
+	/**
+	 * Layer the widget is drawn into on the main display.
+	 */
+	private Layer layer;
+	
+	/**
+	 * Title of the alarm edit display.
+	 */
+	private TextCache.RenderedText editTitle;
+	
+	/**
+	 * Widgets on the alarm edit display.
+	 */
+	private WidgetTree editTree;
+	
+	/**
+	 * True if the alarm time was pressed to edit the alarm.
+	 */
+	private boolean editPressed;
+	
+	/**
+	 * True if the back arrow on the edit display was pressed.
+	 */
+	private boolean backPressed;
+	
+	/**
+	 * Image of the alarm time on the edit display.
+	 */
+	private TextCache.RenderedText editTimeText;
+	
+	/**
+	 * Alarm time that editTimeText shows.
+	 */
+	private LocalTime editTime;
+	
+	/**
+	 * Image of the alarm's sound on the edit display.
+	 */
+	private TextCache.RenderedText editSoundText;
+	
+	/**
+	 * Sound that editSoundText shows.
+	 */
+	private String editSound;
+	
 	/**
 	 * Create a AlarmWidget
 	 * @param proccessingObj PApplet from drawing screen.
 	 * @param x X coordinate of triangle.
 	 * @param y Y coordinate of triangle.
 	 * @param Alarm Alarm object to manipulate.
+	 * @param controller Controller for the alarm.
+	 * @param sounds Sounds the alarm can play.
+	 * @param textCache Fonts to draw with.
 	 */
-	public AlarmWidget(PApplet proccessingObj, int x, int y, Alarm alarm, Controller controller) {
+	public AlarmWidget(PApplet proccessingObj, int x, int y, Alarm alarm, Controller controller, SoundLibrary sounds,
+			final TextCache textCache) {
 		parent = proccessingObj;
 		this.x = x;
 		this.y = y;
 		this.alarm = alarm;
 		this.controller = controller;
+		this.sounds = sounds;
 		alarmFormatter = DateTimeFormatter.ofPattern("hh:mm a", Locale.US);
+		
+		layer = new Layer(x + ALARM_LAYER[0], y + ALARM_LAYER[1], ALARM_LAYER[2], ALARM_LAYER[3]) {
+			private Alarm rendered;
+			
+			@Override
+			protected boolean isStale() {
+				return rendered != AlarmWidget.this.alarm;
+			}
+			
+			@Override
+			protected void render(PGraphics g) {
+				rendered = AlarmWidget.this.alarm;
+				renderAlarmWidget(g, textCache.getFont(35));
+			}
+		};
+		
+		editTree = new WidgetTree(parent.width, parent.height);
+		for (int i = 0; i < TRIANGLES_X.length; i++) {
+			editTree.add(new TriangleButton(TRIANGLES_X[i], TOP_TRIANGLE_Y, TRIANGLE_SIZE, false, i, this));
+			editTree.add(new TriangleButton(TRIANGLES_X[i], BOTTOM_TRIANGLE_Y, TRIANGLE_SIZE, true, i, this));
+		}
+		editTree.add(new Widget(0, 0, 50, 50) {
+			@Override
+			public void press() {
+				backPressed = true;
+			}
+		});
+		
+		// Sound name picks the next sound
+		editTree.add(new Widget(SOUND_POS[0], SOUND_POS[1] - 40, 580, 55) {
+			@Override
+			public void press() {
+				nextSound();
+			}
+		});
 	}
 	
 	/**
-	 * Display the alarm widget for the alarm.
+	 * Alarm shown.
+	 * @return Alarm of the widget.
+	 */
+	public Alarm getAlarm() {
+		return alarm;
+	}
+	
+	/**
+	 * Show the latest version of the alarm.
+	 * @param latest Alarm with the same number.
+	 */
+	public void setAlarm(Alarm latest) {
+		alarm = latest;
+	}
+	
+	/**
+	 * Layer the widget is drawn into on the main display. It redraws itself when the alarm changes.
+	 * @return Layer for the widget.
+	 */
+	public Layer getLayer() {
+		return layer;
+	}
+	
+	/**
+	 * Draw the alarm widget for the alarm.
+	 * @param g Graphics to draw to.
 	 * @param font Font to use.
 	 */
-	public void displayAlarmWidget(PFont font) {
-		try {
-			checkAlarmToggle();
-		} catch (Exception e) {
-			e.printStackTrace();
+	private void renderAlarmWidget(PGraphics g, PFont font) {
+		g.textFont(font, 35);
+		if (alarm.isActive) {
+			g.stroke(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
+			g.strokeWeight(STROKE_WEIGHT);
+			g.fill(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
+			g.ellipse(x + 10, (y - 12), ALARM_RADIUS, ALARM_RADIUS);	
+		}
+		g.fill(255);
+		g.text(alarm.number, x, y);
+		g.text(String.valueOf(alarmFormatter.format(alarm.time)), x - ALARM_OFFSET, y + ALARM_OFFSET);
+	}
+	
+	/**
+	 * Change the hour, minute or time of day of the alarm.
+	 * @param value 0 for Hour, 1 for Minute, & 2 for time of day.
+	 * @param incDec 1 to go up, -1 to go down.
+	 */
+	void changeValue(int value, int incDec) {
+		Alarm changed = null;
+		switch(value) {
+		case 0:
+			changed = controller.setAlarm(alarm.number, alarm.time.plusHours(incDec));	
+			break;
+		case 1:
+			changed = controller.setAlarm(alarm.number, alarm.time.plusMinutes(incDec));
+			break;
+		case 2:
+			changed = controller.setAlarm(alarm.number, alarm.time.plusHours(12 * incDec));
+			break;
 		}
 		
-		parent.textFont(font, 35);
-		if (alarm.isActive) {
-			parent.fill(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
-			parent.circle(x + 10, (y - 12), ALARM_RADIUS);	
+		// Show the change now, so a second press before the next frame builds on it.
+		if (changed != null)
+			alarm = changed;
+	}
+	
+	/**
+	 * Change the alarm to the sound after its current one, going back to the first after the last.
+	 */
+	void nextSound() {
+		List<String> names = sounds.getNames();
+		if (names.isEmpty())
+			return;
+		
+		int current = names.indexOf(sounds.resolve(alarm.sound));
+		try {
+			alarm = controller.setAlarmSound(alarm.number, names.get((current + 1) % names.size()));
+		} catch (Exception e) {
+			LOG.error("Couldn't change the sound of alarm " + alarm.number, e);
 		}
-		parent.fill(255);
-		parent.text(alarm.number, x, y);
-		parent.text(String.valueOf(alarmFormatter.format(alarm.time)), x - ALARM_OFFSET, y + ALARM_OFFSET);
 	}
 	
 	/**
 	 * Displays the alarm edit display.
-	 * @param font Font to use
+	 * @param textCache Fonts and text images to draw with.
 	 * @return True if the user is done editing, false if not done.
 	 */
-	public boolean displayAlarmEdit(PFont font) {
-		parent.textFont(font, 40);
-		parent.text(String.format("Set Alarm %s", alarm.number), 280, 50);
+	public boolean displayAlarmEdit(TextCache textCache) {
+		if (editTitle == null)
+			editTitle = textCache.get(String.format("Set Alarm %s", alarm.number), 40, parent.color(255));
+		textCache.draw(editTitle, 280, 50);
 		
-		parent.textFont(font, 120);
-		parent.text(String.valueOf(alarmFormatter.format(alarm.time)), 110, 290);
+		if (editTime != alarm.time) {
+			editTime = alarm.time;
+			editTimeText = textCache.get(alarmFormatter.format(alarm.time), 120, parent.color(255));
+		}
+		textCache.draw(editTimeText, 110, 290);
+		
+		String sound = sounds.resolve(alarm.sound);
+		if (sound != null) {
+			if (!sound.equals(editSound)) {
+				editSound = sound;
+				editSoundText = textCache.get("Sound: " + sound, 30, parent.color(255));
+			}
+			textCache.draw(editSoundText, SOUND_POS[0], SOUND_POS[1]);
+		}
 		
-
 		// Triangle buttons
 		parent.fill(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
-		for (int i = 0; i < TRIANGLES_X.length; i++) {
-			int x = TRIANGLES_X[i];
-			TriangleButton t = new TriangleButton(x, TOP_TRIANGLE_Y, TRIANGLE_SIZE, false, i, (Main) parent);
-			TriangleButton t2 = new TriangleButton(x, BOTTOM_TRIANGLE_Y, TRIANGLE_SIZE, true, i, (Main) parent);
-			t.displayTriangle();
-			t2.displayTriangle();
-			
-			t.change_value(alarm, controller);
-			t2.change_value(alarm, controller);
-		}
+		editTree.display(parent);
 		
 		// Back Arrow 
 		parent.rect(20, 19, 35, 2);
 		parent.triangle(15, 20, 20, 15, 20, 25);
-		if (parent.mousePressed && withinRectangle(parent.mouseX, parent.mouseY, 0, 0, 50, 50)) {
-			parent.fill(255);
+		parent.fill(255);
+		
+		if (backPressed) {
+			backPressed = false;
 			return true;
 		}
-		parent.fill(255);
 		return false;
 	}
 	
 	/**
-	 * If alarm circle is clicked toggle alarm clock.
-	 * @throws Exception If wrong alarm number is passed.
+	 * Widgets on the alarm edit display.
+	 * @return Widget tree for the edit display.
 	 */
-	private void checkAlarmToggle() throws Exception {
-		if (parent.mousePressed) {
-			double dist = Math.sqrt(Math.pow(x + 10 - parent.mouseX, 2) + Math.pow((y - 10) - parent.mouseY, 2));
-			if (dist < ALARM_RADIUS)
-				controller.setAlarm(alarm.number, !alarm.isActive);
-		}
+	public WidgetTree getEditTree() {
+		return editTree;
 	}
 	
 	/**
-	 * Checks if an alarm was clicked to change its settings.
+	 * Add the widgets for the main display, the circle that toggles the alarm and the
+	 * alarm time that opens the edit display.
+	 * @param tree Widget tree of the main display.
 	 */
-	public boolean checkEditAlarmPressed() {
-		boolean inText = withinRectangle(parent.mouseX, parent.mouseY, x - ALARM_OFFSET, y + ALARM_OFFSET - 25, 150, 50);
-		return parent.mousePressed && inText;
+	public void addWidgets(WidgetTree tree) {
+		// Alarm circle toggles the alarm
+		tree.add(new Widget(x + 10 - ALARM_RADIUS, y - 10 - ALARM_RADIUS, ALARM_RADIUS * 2, ALARM_RADIUS * 2) {
+			@Override
+			public boolean contains(float px, float py) {
+				float dx = x + ALARM_RADIUS - px;
+				float dy = y + ALARM_RADIUS - py;
+				return dx * dx + dy * dy < ALARM_RADIUS * ALARM_RADIUS;
+			}
+			
+			@Override
+			public void press() {
+				try {
+					alarm = controller.setAlarm(alarm.number, !alarm.isActive);
+				} catch (Exception e) {
+					LOG.error("Couldn't turn alarm " + alarm.number + (alarm.isActive ? " off" : " on"), e);
+				}
+			}
+		});
+		
+		// Alarm time opens the edit display
+		tree.add(new Widget(x - ALARM_OFFSET, y + ALARM_OFFSET - 25, 150, 50) {
+			@Override
+			public void press() {
+				editPressed = true;
+			}
+		});
 	}
 	
 	/**
-	 * Determines if a point is within a rectangle.
-	 * @param x1 Point x position.
-	 * @param y1 Point y position.
-	 * @param x2 Rectangle x position.
-	 * @param y2 Rectangle y position.
-	 * @param width Width of the rectangle.
-	 * @param height Height of the rectangle.
-	 * @return True if point is within rectangle, false otherwise.
+	 * Checks if an alarm was clicked to change its settings.
 	 */
-	private boolean withinRectangle(float x1, float y1, float x2, float y2, float width, float height) {
-		
-		if (x1 < x2 || x1 > (x2 + width))
-			return false;
-		
-		if (y1 < y2 || y1 > (y2 + height))
-			return false;
-		
-		return true;
+	public boolean checkEditAlarmPressed() {
+		boolean pressed = editPressed;
+		editPressed = false;
+		return pressed;
 	}
 }
 
-class TriangleButton {
+class TriangleButton extends Widget {
 	
 	// X location of triangle.
-	int x;
+	int triangleX;
 	
 	// Y location of triangle.
-	int y;
+	int triangleY;
 	
 	// Size of triangle.
 	int size;
@@ -181,76 +355,47 @@ class TriangleButton {
 	
 	// The third point on the triangle.
 	float verticalPoint;
-		
-	Main parent;
 	
-	public TriangleButton(int x, int y, int size, boolean reverse, int value, Main proccessingObj) {
-		this.x = x;
-		this.y = y;
+	// Alarm the triangle changes.
+	AlarmWidget alarmWidget;
+	
+	public TriangleButton(int x, int y, int size, boolean reverse, int value, AlarmWidget alarmWidget) {
+		// Have a square around triangle to check if clicked near/inside triangle. 
+		super(x, reverse ? y : y - size, size, size);
+		this.triangleX = x;
+		this.triangleY = y;
 		this.size = size;
 		this.value = value;
 		this.reverse = reverse;
+		this.alarmWidget = alarmWidget;
 		verticalPoint = reverse ? y + size : y - size;
-		parent = proccessingObj;
 	}
 	
 	/**
 	 * Display a triangle on screen.
-	 * @param x: X position for triangle starting at the leftmost point
-	 * @param y: Y position for triangle starting at the leftmost point
-	 * @param size: Size of the triangle.
-	 * @param reverse: True to draw the triangle upside, false otherwise.
+	 * @param parent PApplet to draw to.
 	 */
-	public void displayTriangle() {
+	@Override
+	public void display(PApplet parent) {
 		parent.noStroke();
-		parent.triangle(x, y, x + size, y, ((x + x + size) / 2), verticalPoint);
+		parent.triangle(triangleX, triangleY, triangleX + size, triangleY, ((triangleX + triangleX + size) / 2), verticalPoint);
 		parent.stroke(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
 	}
 	
 	/**
-	 * When triangle is clicked changed its value for the alarm.
-	 * @param alarm Alarm to manipulate.
-	 * @param controller Controller.
+	 * Holding a triangle keeps changing the value.
+	 * @return True.
 	 */
-	public void change_value(Alarm alarm, Controller controller) {
-		// Have a square around triangle to check if clicked near/inside triangle. 
-		float newY = reverse ? verticalPoint - size : verticalPoint;
-		boolean isIn = withinRectangle(parent.mouseX, parent.mouseY, x, newY, size, size);
-		int inc_dec = reverse ? -1 : 1;
-		
-		if (isIn && parent.getMouseClicked()) {
-			switch(value) {
-			case 0:
-				controller.setAlarm(alarm.number, alarm.time.plusHours(inc_dec));	
-				break;
-			case 1:
-				controller.setAlarm(alarm.number, alarm.time.plusMinutes(inc_dec));
-				break;
-			case 2:
-				controller.setAlarm(alarm.number, alarm.time.plusHours(12 * inc_dec));
-				break;
-			}
-		}
+	@Override
+	public boolean repeats() {
+		return true;
 	}
 	
 	/**
-	 * Determines if a point is within a rectangle.
-	 * @param x1 Point x position.
-	 * @param y1 Point y position.
-	 * @param x2 Rectangle x position.
-	 * @param y2 Rectangle y position.
-	 * @param width Width of the rectangle.
-	 * @param height Height of the rectangle.
-	 * @return True if point is within rectangle, false otherwise.
+	 * When triangle is clicked changed its value for the alarm.
 	 */
-	private boolean withinRectangle(float x1, float y1, float x2, float y2, float width, float height) {
-		
-		if (x1 < x2 || x1 > (x2 + width))
-			return false;
-		
-		if (y1 < y2 || y1 > (y2 + height))
-			return false;
-		
-		return true;
+	@Override
+	public void press() {
+		alarmWidget.changeValue(value, reverse ? -1 : 1);
 	}
 }
@@ -0,0 +1,56 @@
+package View;
+
+import java.util.ArrayList;
+
+import processing.core.PApplet;
+
+/** Draws a stack of layers to the screen in the order they were added.
+ * @author Brandon Blaschke
+ */
+public class Compositor {
+	
+	/**
+	 * Parent for PApplet to draw items to the screen.
+	 */
+	private PApplet parent;
+	
+	/**
+	 * Layers from bottom to top.
+	 */
+	private ArrayList<Layer> layers;
+	
+	/**
+	 * Create a Compositor.
+	 * @param proccessingObj PApplet object that is being used to draw items.
+	 */
+	public Compositor(PApplet proccessingObj) {
+		parent = proccessingObj;
+		layers = new ArrayList<Layer>();
+	}
+	
+	/**
+	 * Add a layer on top of the others.
+	 * @param layer Layer to add.
+	 */
+	public void add(Layer layer) {
+		layers.add(layer);
+	}
+	
+	/**
+	 * Mark every layer to be redrawn.
+	 */
+	public void invalidateAll() {
+		for (int i = 0; i < layers.size(); i++) {
+			layers.get(i).invalidate();
+		}
+	}
+	
+	/**
+	 * Draw every layer, redrawing only the ones that are out of date.
+	 */
+	public void display() {
+		for (int i = 0; i < layers.size(); i++) {
+			layers.get(i).display(parent);
+		}
+	}
+}
@@ -8,6 +8,12 @@ public final class Constants {
 	
 	private Constants() {}
 	
+	// Font used for all text
+	public static final String FONT_NAME = "Arial";
+	
+	// Sizes the font is shown at, these are baked with --bake-fonts
+	public static final int[] FONT_SIZES = {30, 35, 40, 55, 60, 65, 70, 120};
+	
 	// Main color in the program, this is purple RGB
 	public static final int[] PRIMARY_COLOR = {170, 0, 212};
 	
@@ -23,6 +29,9 @@ public final class Constants {
 	// Arc Size
 	public static final int ARC_SIZE = 340;
 	
+	// Blur radius of the glow around the arc
+	public static final int GLOW_BLUR = 6;
+	
 	// Time Position
 	public static final int[] TIME_POS = {260, 250};
 	
@@ -31,7 +40,7 @@ public final class Constants {
 	
 	// Alarm position
 	public static final int[] ALARM_POS = {60, 210, 360};
-
+	
 	// Alarm radius for circle
 	public static final int ALARM_RADIUS = 40;
 	
@@ -44,6 +53,12 @@ public final class Constants {
 	// Day of the week position
 	public static final int[] WEEK_POS = {565, 220};
 	
+	// Area holding the day of the week and date, x, y, width, height
+	public static final int[] DATE_LAYER = {555, 175, 245, 110};
+	
+	// Area around an alarm widget's position, x offset, y offset, width, height
+	public static final int[] ALARM_LAYER = {-65, -45, 210, 115};
+	
 	// Triangle button positions for alarm settings
 	public static final int[] TRIANGLES_X = {160, 360, 550};
 	
@@ -55,4 +70,7 @@ public final class Constants {
 	
 	// Triangle size
 	public static final int TRIANGLE_SIZE = 50;
+	
+	// Position of the sound name on the alarm settings, x, y
+	public static final int[] SOUND_POS = {110, 445};
 }
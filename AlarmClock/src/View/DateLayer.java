@@ -0,0 +1,77 @@
+package View;
+
+import static View.Constants.*;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+import processing.core.PGraphics;
+
+/** Layer showing the day of the week and the date, redrawn when the day changes.
+ * @author Brandon Blaschke
+ */
+public class DateLayer extends Layer {
+	
+	/**
+	 * Fonts to draw with.
+	 */
+	private TextCache textCache;
+	
+	/**
+	 * Formatter for the date
+	 */
+	private DateTimeFormatter dateFormatter;
+	
+	/**
+	 * Formatter for the week day name.
+	 */
+	private DateTimeFormatter weekDayFormatter;
+	
+	/**
+	 * Date to show.
+	 */
+	private LocalDate date;
+	
+	/**
+	 * Date currently drawn in the layer.
+	 */
+	private LocalDate renderedDate;
+	
+	/**
+	 * Create a DateLayer.
+	 * @param textCache Fonts to draw with.
+	 */
+	public DateLayer(TextCache textCache) {
+		super(DATE_LAYER[0], DATE_LAYER[1], DATE_LAYER[2], DATE_LAYER[3]);
+		this.textCache = textCache;
+		dateFormatter = DateTimeFormatter.ofPattern("MMM / dd / yy", Locale.US);
+		weekDayFormatter = DateTimeFormatter.ofPattern("EEEE", Locale.US);
+	}
+	
+	/**
+	 * Set the date to show.
+	 * @param date Today's date.
+	 */
+	public void setDate(LocalDate date) {
+		this.date = date;
+	}
+	
+	@Override
+	protected boolean isStale() {
+		return date != null && !date.equals(renderedDate);
+	}
+	
+	@Override
+	protected void render(PGraphics g) {
+		renderedDate = date;
+		if (date == null)
+			return;
+		
+		g.fill(255);
+		g.textFont(textCache.getFont(40), 40);
+		g.text(weekDayFormatter.format(date), WEEK_POS[0], WEEK_POS[1]);
+		g.textFont(textCache.getFont(30), 30);
+		g.text(dateFormatter.format(date), DATE_POS[0], DATE_POS[1]);
+	}
+}
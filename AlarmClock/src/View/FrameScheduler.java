@@ -0,0 +1,148 @@
+package View;
+
+import java.time.Clock;
+
+import Model.ClockModel;
+import Model.ModelListener;
+import processing.core.PApplet;
+
+/** Decides when frames are drawn. Outside the snooze screen the display only changes once
+ * a second, so while nobody is touching the screen and no alarm is going off the draw loop
+ * is stopped and a frame is drawn as each wall-clock second starts. A touch or an alarm
+ * starts the loop again at the full frame rate until the screen is left alone.
+ * @author Brandon Blaschke
+ */
+public class FrameScheduler implements ModelListener {
+	
+	/**
+	 * Frames per second while the screen is being touched or an alarm is going off. While
+	 * the loop is stopped Processing still checks for a requested frame at this rate.
+	 */
+	public static final int ACTIVE_FRAME_RATE = 60;
+	
+	/**
+	 * How long the full frame rate is kept after the screen was last touched.
+	 */
+	private static final long ACTIVE_NANOS = 5000000000L;
+	
+	/**
+	 * Applet whose frames are scheduled.
+	 */
+	private final PApplet parent;
+	
+	/**
+	 * Model telling if an alarm is going off.
+	 */
+	private final ClockModel clockModel;
+	
+	/**
+	 * Clock the seconds are counted on, the same one the time is shown from.
+	 */
+	private final Clock clock;
+	
+	/**
+	 * True while drawing at the full frame rate.
+	 */
+	private boolean looping;
+	
+	/**
+	 * True while a finger is down.
+	 */
+	private boolean touching;
+	
+	/**
+	 * System.nanoTime() of the last touch event.
+	 */
+	private long lastTouch;
+	
+	/**
+	 * Thread asking for a frame at the start of each second.
+	 */
+	private Thread ticker;
+	
+	/**
+	 * Create a FrameScheduler.
+	 * @param parent Applet whose frames are scheduled.
+	 * @param theModel Model of the clock.
+	 */
+	public FrameScheduler(PApplet parent, ClockModel theModel) {
+		this.parent = parent;
+		clockModel = theModel;
+		clock = theModel.getClock();
+		looping = true;
+		lastTouch = System.nanoTime();
+	}
+	
+	/**
+	 * Start scheduling frames, called from setup(). The loop runs at the full frame rate
+	 * until the screen has been left alone for a while.
+	 */
+	public void start() {
+		parent.frameRate(ACTIVE_FRAME_RATE);
+		clockModel.addModelListener(this);
+		
+		ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						// Worked out from the clock each time, so it follows the clock being set.
+						Thread.sleep(1000 - Math.floorMod(clock.millis(), 1000L));
+						parent.redraw();
+					}
+				} catch (InterruptedException e) {
+					// Stopped.
+				}
+			}
+		}, "frame-ticker");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+	
+	/**
+	 * Draw at the full frame rate for a touch. Called on the event thread.
+	 * @param type InputQueue.PRESS, RELEASE or DRAG.
+	 */
+	public synchronized void touched(int type) {
+		touching = type != InputQueue.RELEASE;
+		lastTouch = System.nanoTime();
+		wake();
+	}
+	
+	/**
+	 * Draw at the full frame rate while an alarm is going off, otherwise draw one frame
+	 * to show the change.
+	 */
+	@Override
+	public synchronized void modelChanged() {
+		if (clockModel.isAlarmOn()) {
+			wake();
+		} else {
+			parent.redraw();
+		}
+	}
+	
+	/**
+	 * Stop the loop if nothing needs the full frame rate anymore, or start it if an alarm
+	 * is going off. Called at the end of each frame.
+	 */
+	public synchronized void frameDrawn() {
+		if (clockModel.isAlarmOn()) {
+			// The Watchdog sets the alarm going off before the listeners can be told.
+			wake();
+		} else if (looping && !touching && System.nanoTime() - lastTouch > ACTIVE_NANOS) {
+			looping = false;
+			parent.noLoop();
+		}
+	}
+	
+	/**
+	 * Start the loop if it is stopped.
+	 */
+	private void wake() {
+		if (!looping) {
+			looping = true;
+			parent.loop();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package View;
+
+import Util.LatencyHistogram;
+
+/** Turns the raw touch events into taps, long presses and auto-repeats on widgets.
+ * Presses that come right after a release are treated as the touch screen bouncing
+ * and ignored.
+ * @author Brandon Blaschke
+ */
+public class GestureRecognizer {
+	
+	/**
+	 * Presses this soon after a release are ignored.
+	 */
+	private static final long DEBOUNCE_NANOS = 50_000_000L;
+	
+	/**
+	 * How long a finger has to be held down for a long press.
+	 */
+	private static final long LONG_PRESS_NANOS = 500_000_000L;
+	
+	/**
+	 * Time between repeats while a repeating widget is held down.
+	 */
+	private static final long REPEAT_NANOS = 100_000_000L;
+	
+	/**
+	 * How far the finger can move before the touch no longer counts as a tap.
+	 */
+	private static final float TOUCH_SLOP = 20;
+	
+	/**
+	 * View the touches go to.
+	 */
+	private View view;
+	
+	/**
+	 * Widgets of the screen the current touch started on.
+	 */
+	private WidgetTree tree;
+	
+	/**
+	 * Widget under the finger when it went down, null if none.
+	 */
+	private Widget pressed;
+	
+	/**
+	 * True while a finger is down.
+	 */
+	private boolean down;
+	
+	/**
+	 * True while the touch is ignored because it bounced or moved too far.
+	 */
+	private boolean ignored;
+	
+	/**
+	 * True if the current touch already turned into a long press.
+	 */
+	private boolean longPressed;
+	
+	/**
+	 * Where the finger went down.
+	 */
+	private float downX, downY;
+	
+	/**
+	 * When the finger went down.
+	 */
+	private long downTime;
+	
+	/**
+	 * When the last finger was lifted.
+	 */
+	private long releaseTime;
+	
+	/**
+	 * When the next auto-repeat is due.
+	 */
+	private long nextRepeat;
+	
+	/**
+	 * Time from a touch event to the widget acting on it.
+	 */
+	private LatencyHistogram latency;
+	
+	/**
+	 * Time of the frame being handled, the latency of each event is measured up to it.
+	 */
+	private long frameTime;
+	
+	/**
+	 * Create a GestureRecognizer.
+	 * @param view View the touches go to.
+	 */
+	public GestureRecognizer(View view) {
+		this.view = view;
+		latency = new LatencyHistogram();
+		releaseTime = Long.MIN_VALUE / 2;
+	}
+	
+	/**
+	 * Take every queued event and fire any long press or repeat that is due. Call once per frame.
+	 * @param queue Queue of touch events.
+	 * @param now System.nanoTime() of this frame.
+	 */
+	public void update(InputQueue queue, long now) {
+		frameTime = now;
+		if (view.currentTree() != tree) {
+			// Screen changed, a touch that is still down belongs to the old screen.
+			pressed = null;
+		}
+		
+		while (queue.poll(this)) {
+			// Each event is handled in onEvent.
+		}
+		
+		if (!down || ignored || pressed == null)
+			return;
+		
+		if (!longPressed && now - downTime >= LONG_PRESS_NANOS) {
+			longPressed = true;
+			nextRepeat = downTime + LONG_PRESS_NANOS;
+			if (!pressed.repeats()) {
+				pressed.longPress();
+				latency.recordNanos(now - nextRepeat);
+			}
+		}
+		
+		if (longPressed && pressed.repeats()) {
+			// One repeat per update at most, so a late frame doesn't fire a burst.
+			if (now >= nextRepeat) {
+				pressed.press();
+				latency.recordNanos(now - nextRepeat);
+				nextRepeat = now + REPEAT_NANOS;
+			}
+		}
+	}
+	
+	/**
+	 * Handle one touch event.
+	 * @param type InputQueue.PRESS, RELEASE or DRAG.
+	 * @param x X position of the event.
+	 * @param y Y position of the event.
+	 * @param time System.nanoTime() when the event happened.
+	 */
+	void onEvent(int type, float x, float y, long time) {
+		switch (type) {
+		case InputQueue.PRESS:
+			down = true;
+			longPressed = false;
+			ignored = time - releaseTime < DEBOUNCE_NANOS;
+			downX = x;
+			downY = y;
+			downTime = time;
+			tree = view.currentTree();
+			pressed = ignored ? null : tree.hitTest(x, y);
+			break;
+		case InputQueue.DRAG:
+			if (down && (Math.abs(x - downX) > TOUCH_SLOP || Math.abs(y - downY) > TOUCH_SLOP))
+				ignored = true;
+			break;
+		case InputQueue.RELEASE:
+			if (down && !ignored && !longPressed && pressed != null && tree == view.currentTree()
+					&& pressed == tree.hitTest(x, y)) {
+				pressed.press();
+				latency.recordNanos(frameTime - time);
+			}
+			if (!ignored)
+				releaseTime = time;
+			down = false;
+			pressed = null;
+			break;
+		}
+	}
+	
+	/**
+	 * Time from a touch event to the widget acting on it.
+	 * @return Histogram of the input latency.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+}
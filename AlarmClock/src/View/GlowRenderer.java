@@ -0,0 +1,149 @@
+package View;
+
+import static View.Constants.*;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/** Draws the blurred glow behind the seconds arc. The arc is blurred into its own
+ * off-screen buffer, which is only redrawn when the arc changes. The blur is a
+ * three pass separable box blur, which looks close to a gaussian blur and costs the
+ * same no matter the radius.
+ * @author Brandon Blaschke
+ */
+public class GlowRenderer {
+	
+	/**
+	 * Parent for PApplet to draw items to the screen.
+	 */
+	private PApplet parent;
+	
+	/**
+	 * Off-screen buffer holding the blurred arc.
+	 */
+	private PGraphics buffer;
+	
+	/**
+	 * End angle of the arc currently in the buffer.
+	 */
+	private float bufferedStop;
+	
+	/**
+	 * Space around the arc so the blur isn't cut off at the edge of the buffer.
+	 */
+	private int padding;
+	
+	/**
+	 * Scratch pixels used between the blur passes.
+	 */
+	private int[] scratch;
+	
+	/**
+	 * Create a GlowRenderer.
+	 * @param proccessingObj PApplet object that is being used to draw items.
+	 */
+	public GlowRenderer(PApplet proccessingObj) {
+		parent = proccessingObj;
+		padding = STROKE_WEIGHT + GLOW_BLUR * 4;
+		bufferedStop = Float.NaN;
+	}
+	
+	/**
+	 * Draw the glow for an arc starting at the top of the circle.
+	 * @param stop Angle the arc ends at in radians.
+	 */
+	public void display(float stop) {
+		if (buffer == null) {
+			int size = ARC_SIZE + padding * 2;
+			buffer = parent.createGraphics(size, size);
+			scratch = new int[size * size];
+		}
+		
+		if (stop != bufferedStop) {
+			render(stop);
+			bufferedStop = stop;
+		}
+		
+		parent.image(buffer, ARC_POS[0] - ARC_SIZE / 2 - padding, ARC_POS[1] - ARC_SIZE / 2 - padding);
+	}
+	
+	/**
+	 * Redraw and blur the arc in the buffer.
+	 * @param stop Angle the arc ends at in radians.
+	 */
+	private void render(float stop) {
+		float center = ARC_SIZE / 2 + padding;
+		
+		// Blur against the black background like the blur over the whole screen used to.
+		buffer.beginDraw();
+		buffer.background(0);
+		buffer.noFill();
+		buffer.stroke(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
+		buffer.strokeWeight(STROKE_WEIGHT);
+		buffer.arc(center, center, ARC_SIZE, ARC_SIZE, -PConstants.HALF_PI, stop, PConstants.OPEN);
+		buffer.endDraw();
+		
+		buffer.loadPixels();
+		// Processing's BLUR spreads over 3.5 times its radius, three box blurs of about a
+		// third of that give roughly the same falloff.
+		int radius = Math.max(1, (int) (GLOW_BLUR * 3.5f / 3));
+		for (int i = 0; i < 3; i++) {
+			boxBlur(buffer.pixels, scratch, buffer.width, buffer.height, radius, true);
+			boxBlur(scratch, buffer.pixels, buffer.width, buffer.height, radius, false);
+		}
+		buffer.updatePixels();
+	}
+	
+	/**
+	 * Blur ARGB pixels along one axis with a sliding window.
+	 * @param src Pixels to blur.
+	 * @param dst Pixels to write the result to.
+	 * @param width Width of the image.
+	 * @param height Height of the image.
+	 * @param radius Radius of the box.
+	 * @param horizontal True to blur along rows, false to blur along columns.
+	 */
+	private void boxBlur(int[] src, int[] dst, int width, int height, int radius, boolean horizontal) {
+		int lines = horizontal ? height : width;
+		int length = horizontal ? width : height;
+		int step = horizontal ? 1 : width;
+		int window = radius * 2 + 1;
+		
+		for (int line = 0; line < lines; line++) {
+			int start = horizontal ? line * width : line;
+			int a = 0, r = 0, g = 0, b = 0;
+			
+			// Fill the window for the first pixel, treating pixels past the edge as transparent.
+			for (int i = 0; i <= radius && i < length; i++) {
+				int c = src[start + i * step];
+				a += c >>> 24;
+				r += (c >> 16) & 0xFF;
+				g += (c >> 8) & 0xFF;
+				b += c & 0xFF;
+			}
+			
+			for (int i = 0; i < length; i++) {
+				dst[start + i * step] = ((a / window) << 24) | ((r / window) << 16) | ((g / window) << 8) | (b / window);
+				
+				int in = i + radius + 1;
+				if (in < length) {
+					int c = src[start + in * step];
+					a += c >>> 24;
+					r += (c >> 16) & 0xFF;
+					g += (c >> 8) & 0xFF;
+					b += c & 0xFF;
+				}
+				
+				int out = i - radius;
+				if (out >= 0) {
+					int c = src[start + out * step];
+					a -= c >>> 24;
+					r -= (c >> 16) & 0xFF;
+					g -= (c >> 8) & 0xFF;
+					b -= c & 0xFF;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package View;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Queue of touch events from the event thread to the draw thread. It is a fixed size
+ * ring buffer with one writer and one reader, so neither side ever locks or allocates.
+ * @author Brandon Blaschke
+ */
+public class InputQueue {
+	
+	/**
+	 * Finger went down.
+	 */
+	public static final int PRESS = 1;
+	
+	/**
+	 * Finger was lifted.
+	 */
+	public static final int RELEASE = 2;
+	
+	/**
+	 * Finger moved while down.
+	 */
+	public static final int DRAG = 3;
+	
+	/**
+	 * Number of events the queue holds, must be a power of two.
+	 */
+	private static final int CAPACITY = 64;
+	
+	/**
+	 * Type of each queued event.
+	 */
+	private final int[] types;
+	
+	/**
+	 * X position of each queued event.
+	 */
+	private final float[] xs;
+	
+	/**
+	 * Y position of each queued event.
+	 */
+	private final float[] ys;
+	
+	/**
+	 * System.nanoTime() when each queued event happened.
+	 */
+	private final long[] times;
+	
+	/**
+	 * Sequence number of the next event to read.
+	 */
+	private final AtomicLong head;
+	
+	/**
+	 * Sequence number of the next event to write.
+	 */
+	private final AtomicLong tail;
+	
+	/**
+	 * Events dropped because the queue was full.
+	 */
+	private final AtomicLong dropped;
+	
+	/**
+	 * Create an empty InputQueue.
+	 */
+	public InputQueue() {
+		types = new int[CAPACITY];
+		xs = new float[CAPACITY];
+		ys = new float[CAPACITY];
+		times = new long[CAPACITY];
+		head = new AtomicLong();
+		tail = new AtomicLong();
+		dropped = new AtomicLong();
+	}
+	
+	/**
+	 * Add an event. Only one thread may add events.
+	 * @param type PRESS, RELEASE or DRAG.
+	 * @param x X position of the event.
+	 * @param y Y position of the event.
+	 * @param time System.nanoTime() when the event happened.
+	 * @return True if added, false if the queue was full and the event was dropped.
+	 */
+	public boolean offer(int type, float x, float y, long time) {
+		long t = tail.get();
+		if (t - head.get() >= CAPACITY) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		
+		int i = (int) t & (CAPACITY - 1);
+		types[i] = type;
+		xs[i] = x;
+		ys[i] = y;
+		times[i] = time;
+		// Publish the slot after it is written.
+		tail.lazySet(t + 1);
+		return true;
+	}
+	
+	/**
+	 * Take the oldest event and pass it to the recognizer. Only one thread may read events.
+	 * @param recognizer Recognizer to hand the event to.
+	 * @return True if an event was taken, false if the queue was empty.
+	 */
+	public boolean poll(GestureRecognizer recognizer) {
+		long h = head.get();
+		if (h == tail.get())
+			return false;
+		
+		int i = (int) h & (CAPACITY - 1);
+		int type = types[i];
+		float x = xs[i];
+		float y = ys[i];
+		long time = times[i];
+		// Free the slot after it is read.
+		head.lazySet(h + 1);
+		
+		recognizer.onEvent(type, x, y, time);
+		return true;
+	}
+	
+	/**
+	 * Number of events dropped because the queue was full.
+	 * @return Number of dropped events.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
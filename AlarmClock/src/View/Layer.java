@@ -0,0 +1,97 @@
+package View;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/** A part of the screen that is drawn once into an off-screen buffer and then copied
+ * to the screen every frame until the data it shows changes.
+ * @author Brandon Blaschke
+ */
+public abstract class Layer {
+	
+	/**
+	 * X coordinate of the layer on the screen.
+	 */
+	protected int x;
+	
+	/**
+	 * Y coordinate of the layer on the screen.
+	 */
+	protected int y;
+	
+	/**
+	 * Width of the layer.
+	 */
+	protected int width;
+	
+	/**
+	 * Height of the layer.
+	 */
+	protected int height;
+	
+	/**
+	 * Off-screen buffer holding the drawn layer.
+	 */
+	private PGraphics buffer;
+	
+	/**
+	 * True if the buffer needs to be redrawn.
+	 */
+	private boolean dirty;
+	
+	/**
+	 * Create a Layer.
+	 * @param x X coordinate of the layer on the screen.
+	 * @param y Y coordinate of the layer on the screen.
+	 * @param width Width of the layer.
+	 * @param height Height of the layer.
+	 */
+	public Layer(int x, int y, int width, int height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		dirty = true;
+	}
+	
+	/**
+	 * Mark the layer to be redrawn on the next frame.
+	 */
+	public void invalidate() {
+		dirty = true;
+	}
+	
+	/**
+	 * Copy the layer to the screen, redrawing it first if it is out of date.
+	 * @param parent PApplet to draw to.
+	 */
+	public void display(PApplet parent) {
+		if (buffer == null) {
+			buffer = parent.createGraphics(width, height);
+		}
+		
+		if (dirty || isStale()) {
+			buffer.beginDraw();
+			buffer.clear();
+			// Draw using screen coordinates.
+			buffer.translate(-x, -y);
+			render(buffer);
+			buffer.endDraw();
+			dirty = false;
+		}
+		
+		parent.image(buffer, x, y);
+	}
+	
+	/**
+	 * Checks if the data shown by the layer changed since it was last drawn.
+	 * @return True if the layer needs to be redrawn.
+	 */
+	protected abstract boolean isStale();
+	
+	/**
+	 * Draw the layer. Coordinates are screen coordinates.
+	 * @param g Buffer to draw to.
+	 */
+	protected abstract void render(PGraphics g);
+}
@@ -0,0 +1,201 @@
+package View;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import processing.core.PApplet;
+import processing.core.PFont;
+import processing.core.PGraphics;
+
+/** Keeps fonts created at the sizes they are shown at and images of text that has
+ * already been drawn, so the same text isn't rasterized again every frame.
+ * @author Brandon Blaschke
+ */
+public class TextCache {
+	
+	/**
+	 * Most text images to keep before the least recently used is dropped.
+	 */
+	private static final int MAX_IMAGES = 96;
+	
+	/**
+	 * Characters baked into saved fonts, the printable ASCII characters.
+	 */
+	private static final char[] BAKED_CHARSET = new char[95];
+	static {
+		for (int i = 0; i < BAKED_CHARSET.length; i++) {
+			BAKED_CHARSET[i] = (char) (' ' + i);
+		}
+	}
+	
+	/**
+	 * Parent for PApplet to draw items to the screen.
+	 */
+	private PApplet parent;
+	
+	/**
+	 * Name of the font.
+	 */
+	private String fontName;
+	
+	/**
+	 * Fonts by size.
+	 */
+	private HashMap<Integer, PFont> fonts;
+	
+	/**
+	 * Text images by size, color and content, least recently used first.
+	 */
+	private LinkedHashMap<String, RenderedText> images;
+	
+	/**
+	 * Create a TextCache.
+	 * @param proccessingObj PApplet object that is being used to draw items.
+	 * @param fontName Name of the font to use.
+	 */
+	public TextCache(PApplet proccessingObj, String fontName) {
+		parent = proccessingObj;
+		this.fontName = fontName;
+		fonts = new HashMap<Integer, PFont>();
+		images = new LinkedHashMap<String, RenderedText>(MAX_IMAGES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RenderedText> eldest) {
+				return size() > MAX_IMAGES;
+			}
+		};
+	}
+	
+	/**
+	 * Get the font made at the given size, so its glyphs don't need to be scaled. A font
+	 * baked ahead of time into the data folder is loaded if there is one, which is much
+	 * faster than creating it from the system fonts.
+	 * @param size Size of the font.
+	 * @return Font at the size.
+	 */
+	public PFont getFont(int size) {
+		PFont font = fonts.get(size);
+		if (font == null) {
+			File baked = new File(parent.dataPath(bakedFontName(size)));
+			if (baked.isFile())
+				font = parent.loadFont(baked.getAbsolutePath());
+			if (font == null)
+				font = parent.createFont(fontName, size, true);
+			fonts.put(size, font);
+		}
+		return font;
+	}
+	
+	/**
+	 * Create the font at each size with all its glyphs and save them to the data folder,
+	 * to be loaded by getFont on the next start.
+	 * @param sizes Font sizes to bake.
+	 * @throws IOException If a font couldn't be saved.
+	 */
+	public void bakeFonts(int[] sizes) throws IOException {
+		for (int size : sizes) {
+			PFont font = parent.createFont(fontName, size, true, BAKED_CHARSET);
+			File file = new File(parent.dataPath(bakedFontName(size)));
+			file.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				font.save(out);
+			} finally {
+				out.close();
+			}
+		}
+	}
+	
+	/**
+	 * Name of the file a baked font is saved in.
+	 * @param size Size of the font.
+	 * @return File name of the font.
+	 */
+	private String bakedFontName(int size) {
+		return fontName + "-" + size + ".vlw";
+	}
+	
+	/**
+	 * Get an image of the text, drawing it if it isn't cached.
+	 * @param text Text to draw.
+	 * @param size Size of the font.
+	 * @param color Color of the text.
+	 * @return Image of the text.
+	 */
+	public RenderedText get(String text, int size, int color) {
+		String key = size + ":" + color + ":" + text;
+		RenderedText rendered = images.get(key);
+		if (rendered == null) {
+			rendered = render(text, size, color);
+			images.put(key, rendered);
+		}
+		return rendered;
+	}
+	
+	/**
+	 * Draw text that was already rendered.
+	 * @param text Rendered text.
+	 * @param x X position of the start of the text.
+	 * @param y Y position of the baseline of the text.
+	 */
+	public void draw(RenderedText text, float x, float y) {
+		parent.image(text.image, x, y - text.ascent);
+	}
+	
+	/**
+	 * Rasterize text into an image.
+	 * @param text Text to draw.
+	 * @param size Size of the font.
+	 * @param color Color of the text.
+	 * @return Image of the text.
+	 */
+	private RenderedText render(String text, int size, int color) {
+		PFont font = getFont(size);
+		// Measure with the screen so the image fits the text.
+		parent.textFont(font, size);
+		int ascent = (int) Math.ceil(parent.textAscent()) + 1;
+		int descent = (int) Math.ceil(parent.textDescent()) + 1;
+		int width = (int) Math.ceil(parent.textWidth(text)) + 2;
+		
+		PGraphics g = parent.createGraphics(width, ascent + descent);
+		g.beginDraw();
+		g.clear();
+		g.textFont(font, size);
+		g.fill(color);
+		g.text(text, 0, ascent);
+		g.endDraw();
+		return new RenderedText(g, ascent);
+	}
+	
+	/**
+	 * Image of some text.
+	 */
+	public static class RenderedText {
+		
+		/**
+		 * Image of the text.
+		 */
+		final PGraphics image;
+		
+		/**
+		 * Distance from the top of the image to the baseline.
+		 */
+		final int ascent;
+		
+		/**
+		 * Create a RenderedText.
+		 * @param image Image of the text.
+		 * @param ascent Distance from the top of the image to the baseline.
+		 */
+		RenderedText(PGraphics image, int ascent) {
+			this.image = image;
+			this.ascent = ascent;
+		}
+	}
+}
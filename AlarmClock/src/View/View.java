@@ -1,17 +1,22 @@
 package View;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 import Controller.Controller;
-import Main.Main;
 import Model.Alarm;
+import Model.AlarmSnapshot;
 import Model.ClockModel;
+import Util.LatencyHistogram;
+import Util.Log;
+import Util.Metrics;
 import processing.core.PApplet;
-import processing.core.PFont;
+import View.TextCache.RenderedText;
 import static View.Constants.*;
 
 /** Displays the time and other information as well as buttons.
@@ -20,6 +25,11 @@ import static View.Constants.*;
  */
 public class View {
 	
+	/**
+	 * Log for exceptions checking inputs, which can repeat every frame.
+	 */
+	private static final Log INPUT_LOG = Log.site("View.mainDisplay");
+	
 	/**
 	 * Model for the clock.
 	 */
@@ -36,9 +46,14 @@ public class View {
 	private PApplet parent;
 	
 	/**
-	 * Font type.
+	 * Fonts and images of text that was already drawn.
 	 */
-	private PFont font;
+	private TextCache textCache;
+	
+	/**
+	 * Color of the text drawn in the primary color.
+	 */
+	private int primaryColor;
 	
 	/** 
 	 * LocalTime Object.
@@ -61,48 +76,108 @@ public class View {
 	private DateTimeFormatter timeOfDayFormatter;
 	
 	/**
-	 * Formatter for the date
+	 * Snapshot of the alarms the widgets show.
 	 */
-	private DateTimeFormatter dateFormatter;
+	private AlarmSnapshot shownAlarms;
 	
 	/**
-	 * Formatter for the week day name.
+	 *  List of AlarmWidgets
 	 */
-	private DateTimeFormatter weekDayFormatter;
+	private ArrayList<AlarmWidget> alarmWidgets;
+	
+	/** 
+	 * Current AlarmWidget
+	 */
+	private AlarmWidget currentAlarmWidget;
 	
 	/**
-	 * List of alarms.
+	 * Second, counted from the epoch day, that the time text was made for.
 	 */
-	private ArrayList<Alarm> alarms;
+	private long shownSecond = -1;
 	
 	/**
-	 *  List of AlarmWidgets
+	 * Image of the time.
 	 */
-	private ArrayList<AlarmWidget> alarmWidgets;
+	private RenderedText timeText;
 	
-	/** 
-	 * Current AlarmWidget
+	/**
+	 * Image of the time of day.
 	 */
-	private AlarmWidget currentAlarmWidget;
+	private RenderedText timeOfDayText;
+	
+	/**
+	 * Minute, counted from the epoch day, that the snooze screen's time text was made for.
+	 */
+	private long shownMinute = -1;
+	
+	/**
+	 * Image of the time on the snooze screen.
+	 */
+	private RenderedText snoozeTimeText;
+	
+	/**
+	 * Image of the time of day on the snooze screen.
+	 */
+	private RenderedText snoozeTimeOfDayText;
+	
+	/**
+	 * Formatter for the time on the snooze screen.
+	 */
+	private DateTimeFormatter snoozeTimeFormatter;
+	
+	/**
+	 * Widgets on the main display.
+	 */
+	private WidgetTree mainTree;
+	
+	/**
+	 * Widgets on the snooze display.
+	 */
+	private WidgetTree snoozeTree;
+	
+	/**
+	 * Touch events waiting to be handled.
+	 */
+	private InputQueue inputQueue;
+	
+	/**
+	 * Turns touch events into taps on the widgets.
+	 */
+	private GestureRecognizer gestures;
+	
+	/**
+	 * Draws the glow around the seconds arc.
+	 */
+	private GlowRenderer glowRenderer;
+	
+	/**
+	 * Cached layers of the main display that rarely change.
+	 */
+	private Compositor compositor;
+	
+	/**
+	 * Layer showing the day of the week and date.
+	 */
+	private DateLayer dateLayer;
 	
 	/**
 	 * Alarm ticks
 	 */
 	int tick = 1;
-
+	
 	
 	/**
 	 * If the main display should be shown.
 	 */
 	private Views display; 
-
+	
 	/**
 	 * Create a new View object.
 	 * @param theModel Clock Model.
 	 * @param theController Controller to control model.
 	 * @param proccessingObj PApplet object that is being used to draw items.
 	 */
-	public View(ClockModel theModel, Controller theController, Main proccessingObj) {
+	public View(ClockModel theModel, Controller theController, PApplet proccessingObj) {
 		clockModel = theModel;
 		controller = theController;
 		parent = proccessingObj;
@@ -110,18 +185,98 @@ public class View {
 		display = Views.MAIN_DISPLAY;
 		
 		// TODO: Change font 
-		font = parent.createFont("Arial", 11, true);
+		textCache = new TextCache(parent, FONT_NAME);
+		primaryColor = parent.color(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
+		glowRenderer = new GlowRenderer(parent);
+		compositor = new Compositor(parent);
+		dateLayer = new DateLayer(textCache);
+		compositor.add(dateLayer);
 		
 		timeFormatter = DateTimeFormatter.ofPattern("hh:mm:ss", Locale.US);
 		timeOfDayFormatter = DateTimeFormatter.ofPattern("a", Locale.US);
-		dateFormatter = DateTimeFormatter.ofPattern("MMM / dd / yy", Locale.US);
-		weekDayFormatter = DateTimeFormatter.ofPattern("EEEE", Locale.US);
+		snoozeTimeFormatter = DateTimeFormatter.ofPattern("hh:mm", Locale.US);
+		
+		inputQueue = new InputQueue();
+		gestures = new GestureRecognizer(this);
+		mainTree = new WidgetTree(parent.width, parent.height);
+		snoozeTree = new WidgetTree(parent.width, parent.height);
 		
-		alarms = clockModel.getAlarms();
+		shownAlarms = clockModel.getAlarmSnapshot();
+		List<Alarm> alarms = shownAlarms.getAlarms();
 		alarmWidgets = new ArrayList<AlarmWidget>();
 		for (int i = 0; i < alarms.size(); i++) {
-			alarmWidgets.add(new AlarmWidget(proccessingObj, 80, ALARM_POS[i], alarms.get(i), theController));
+			AlarmWidget aw = new AlarmWidget(proccessingObj, 80, ALARM_POS[i], alarms.get(i), theController,
+					clockModel.getSounds(), textCache);
+			alarmWidgets.add(aw);
+			compositor.add(aw.getLayer());
+			aw.addWidgets(mainTree);
 		}
+		
+		// Snooze button
+		snoozeTree.add(new Widget(210, 50, 380, 100) {
+			@Override
+			public void press() {
+				clockModel.setSnooze();
+				display = Views.MAIN_DISPLAY;
+			}
+		});
+		
+		// Alarm off button
+		snoozeTree.add(new Widget(210, 175, 380, 100) {
+			@Override
+			public void press() {
+				clockModel.stopAlarm();
+				display = Views.MAIN_DISPLAY;
+			}
+		});
+	}
+	
+	/**
+	 * Save the font at every size it is shown at to the data folder, so later starts
+	 * don't have to create them from the system fonts.
+	 * @throws IOException If a font couldn't be saved.
+	 */
+	public void bakeFonts() throws IOException {
+		textCache.bakeFonts(FONT_SIZES);
+	}
+	
+	/**
+	 * Queue that touch events are added to from the event thread.
+	 * @return Input queue of the view.
+	 */
+	public InputQueue getInputQueue() {
+		return inputQueue;
+	}
+	
+	/**
+	 * Time from a touch event to the widget acting on it.
+	 * @return Histogram of the input latency.
+	 */
+	public LatencyHistogram getInputLatency() {
+		return gestures.getLatency();
+	}
+	
+	/**
+	 * Widgets of the screen that is showing.
+	 * @return Widget tree of the current screen.
+	 */
+	WidgetTree currentTree() {
+		switch(display) {
+		case ALARM_SETTINGS_DISPLAY:
+			return currentAlarmWidget.getEditTree();
+		case SNOOZE_DISPLAY:
+			return snoozeTree;
+		default:
+			return mainTree;
+		}
+	}
+	
+	/**
+	 * Screen that is showing.
+	 * @return Current screen.
+	 */
+	Views getDisplay() {
+		return display;
 	}
 	
 	/**
@@ -129,6 +284,17 @@ public class View {
 	 * @throws Exception 
 	 */
 	public void display() {
+		display(System.nanoTime());
+	}
+	
+	/**
+	 * Displays the clock screen on the canvas.
+	 * @param now Time of the frame from System.nanoTime(), or simulated time on the
+	 * same scale as the input events.
+	 */
+	void display(long now) {
+		updateAlarms();
+		gestures.update(inputQueue, now);
 		parent.background(0);
 		
 		switch(display) {
@@ -145,14 +311,32 @@ public class View {
 	}
 	
 	
+	/**
+	 * Give the widgets the latest alarms if they changed since the last frame. The
+	 * snapshot is read without locking, so a change on another thread never holds up
+	 * the frame, and every widget shows the same snapshot. Every change gives the
+	 * snapshot a new version, so comparing versions tells if anything changed.
+	 */
+	private void updateAlarms() {
+		AlarmSnapshot latest = clockModel.getAlarmSnapshot();
+		if (latest.getVersion() == shownAlarms.getVersion())
+			return;
+		
+		shownAlarms = latest;
+		for (AlarmWidget aw : alarmWidgets) {
+			Alarm alarm = latest.get(aw.getAlarm().number);
+			if (alarm != null)
+				aw.setAlarm(alarm);
+		}
+	}
+	
 	/**
 	 * Displays the main view for the clock.
 	 */
 	private void mainDisplay() {
 		// Get current time
 		time = clockModel.getTime();
-		seconds = timeToSeconds(String.valueOf(timeFormatter.format(time)),
-				String.valueOf(timeOfDayFormatter.format(time)));
+		updateTimeText(time);
 		
 		// Create the circle around the time.
 		parent.fill(0);
@@ -165,48 +349,55 @@ public class View {
 		float degrees = map(1, TOTAL_SECONDS, -90, 270, seconds);
 		float arcSpread = parent.radians(degrees);
 		
+		glowRenderer.display(arcSpread);
 		parent.arc(ARC_POS[0], ARC_POS[1], ARC_SIZE, ARC_SIZE, -parent.HALF_PI, arcSpread, parent.OPEN);
 		
-		parent.filter(parent.BLUR, 6);
-		parent.arc(ARC_POS[0], ARC_POS[1], ARC_SIZE, ARC_SIZE, -parent.HALF_PI, arcSpread, parent.OPEN);
-		parent.filter(parent.BLUR, 0);
-		
 		// -------------- Draw time		
-		parent.textFont(font, 55);
-		parent.fill(255);
+		textCache.draw(timeText, TIME_POS[0], TIME_POS[1]);
+		textCache.draw(timeOfDayText, TOD_POS[0], TOD_POS[1]);
 		
-		parent.text(String.valueOf(timeFormatter.format(time)), TIME_POS[0], TIME_POS[1]);
-		parent.fill(PRIMARY_COLOR[0], PRIMARY_COLOR[1], PRIMARY_COLOR[2]);
-		parent.text(String.valueOf(timeOfDayFormatter.format(time)), TOD_POS[0], TOD_POS[1]);
+		// -------------- Draw Alarms and Date
+		dateLayer.setDate(time.toLocalDate());
+		compositor.display();
 		
-		// -------------- Draw Alarms
-		for (AlarmWidget aw : alarmWidgets) {
-			aw.displayAlarmWidget(font);
-			
 		// -------------- Check if one of the alarms is going off
 		if (clockModel.isAlarmOn())
 			display = Views.SNOOZE_DISPLAY;
-		}
 		
-		// -------------- Draw Date
-		parent.textFont(font, 40);
-		parent.text(String.valueOf(weekDayFormatter.format(time)), WEEK_POS[0], WEEK_POS[1]);
-		parent.textFont(font, 30);
-		parent.text(String.valueOf(dateFormatter.format(time)), DATE_POS[0], DATE_POS[1]); 
+		parent.fill(255);
 		
 		// -------------- Checking inputs
 		try {
 			checkAlarmSettingsPressed();
 		} catch (Exception e) {
-			e.printStackTrace();
+			INPUT_LOG.error("Checking the alarm settings failed", e);
 		}
 	}
 	
+	/**
+	 * Format the time and draw its text, only when the second changed since the last frame.
+	 * @param time Current time.
+	 */
+	private void updateTimeText(LocalDateTime time) {
+		long second = time.toLocalDate().toEpochDay() * TOTAL_SECONDS + time.toLocalTime().toSecondOfDay();
+		if (second == shownSecond)
+			return;
+		if (second == shownSecond + 1)
+			Metrics.SECOND_LAG.recordNanos(time.getNano());
+		shownSecond = second;
+		
+		String timeString = timeFormatter.format(time);
+		String timeOfDay = timeOfDayFormatter.format(time);
+		seconds = timeToSeconds(timeString, timeOfDay);
+		timeText = textCache.get(timeString, 55, parent.color(255));
+		timeOfDayText = textCache.get(timeOfDay, 55, primaryColor);
+	}
+	
 	/**
 	 * Displays the alarm settings for a particular alarm.
 	 */
 	private void alarmSettingsDisplay() {
-		if (currentAlarmWidget.displayAlarmEdit(font)) {
+		if (currentAlarmWidget.displayAlarmEdit(textCache)) {
 			display = Views.MAIN_DISPLAY;
 		}
 	}
@@ -228,6 +419,13 @@ public class View {
 	 */
 	private void snoozeDisplay() {
 		
+		// Snoozed or turned off from the control server.
+		if (!clockModel.isAlarmOn()) {
+			display = Views.MAIN_DISPLAY;
+			mainDisplay();
+			return;
+		}
+		
 		// Blinking border
 		int tick_time = 22;
 		if (tick < tick_time) {
@@ -243,34 +441,25 @@ public class View {
 		tick += 1;
 		
 		// Snooze button
-		parent.textFont(font, 70);
 		parent.fill(250, 0, 5);
 		parent.rect(210, 50, 380, 100, 9);
-		parent.fill(255);
-		parent.text("SNOOZE", 250, 125);
-		
-		if (withinRectangle(parent.mouseX, parent.mouseY, 210, 50, 380, 100)) {
-			clockModel.setSnooze();
-			display = Views.MAIN_DISPLAY;
-		}
+		textCache.draw(textCache.get("SNOOZE", 70, parent.color(255)), 250, 125);
 		
 		// Alarm off button
-		parent.textSize(65);
 		parent.fill(250, 0, 5);
 		parent.rect(210, 175, 380, 100, 9);
-		parent.fill(255);
-		parent.text("ALARM OFF", 215, 250);
+		textCache.draw(textCache.get("ALARM OFF", 65, parent.color(255)), 215, 250);
 		
-		parent.textSize(60);
 		time = clockModel.getTime();
-		parent.text(String.valueOf(DateTimeFormatter.ofPattern("hh:mm", Locale.US).format(time)), 255, 400);
-		parent.text(String.valueOf(timeOfDayFormatter.format(time)), 460, 400);
-		
-		if (withinRectangle(parent.mouseX, parent.mouseY, 210, 175, 380, 100)) {
-			clockModel.stopAlarm();
-			display = Views.MAIN_DISPLAY;
+		long minute = time.toLocalDate().toEpochDay() * 1440 + time.getHour() * 60 + time.getMinute();
+		if (minute != shownMinute) {
+			shownMinute = minute;
+			snoozeTimeText = textCache.get(snoozeTimeFormatter.format(time), 60, parent.color(255));
+			snoozeTimeOfDayText = textCache.get(timeOfDayFormatter.format(time), 60, parent.color(255));
 		}
-		
+		textCache.draw(snoozeTimeText, 255, 400);
+		textCache.draw(snoozeTimeOfDayText, 460, 400);
+		parent.fill(255);
 	}
 	
 	/**
@@ -279,7 +468,7 @@ public class View {
 	 * @param timeOfDay Time of the day in "PM" or "AM".
 	 * @return Total seconds passed in the day.
 	 */
-	private long timeToSeconds(String time, String timeOfDay) {
+	static long timeToSeconds(String time, String timeOfDay) {
 		String[] times = time.split(":");
 		long totalTime = 0;
 		int temp;
@@ -321,30 +510,4 @@ public class View {
 		return (float) (b1 + ((val - a1) * (b2-b1))/(a2-a1));
 	}
 	
-	/**
-	 * Determines if a point is within a rectangle.
-	 * @param x1 Point x position.
-	 * @param y1 Point y position.
-	 * @param x2 Rectangle x position.
-	 * @param y2 Rectangle y position.
-	 * @param width Width of the rectangle.
-	 * @param height Height of the rectangle.
-	 * @return True if point is within rectangle, false otherwise.
-	 */
-	private boolean withinRectangle(float x1, float y1, float x2, float y2, float width, float height) {
-		
-		if (x1 < x2 || x1 > (x2 + width))
-			return false;
-		
-		if (y1 < y2 || y1 > (y2 + height))
-			return false;
-		
-		return true;
-	}
-	
-}
-
-// Represent the different views that can be displayed.
-enum Views {
-	MAIN_DISPLAY, ALARM_SETTINGS_DISPLAY, SNOOZE_DISPLAY
 }
@@ -0,0 +1,6 @@
+package View;
+
+// Represent the different views that can be displayed.
+enum Views {
+	MAIN_DISPLAY, ALARM_SETTINGS_DISPLAY, SNOOZE_DISPLAY
+}
@@ -0,0 +1,88 @@
+package View;
+
+import processing.core.PApplet;
+
+/** Something on the screen that can be touched. Widgets are created once per screen
+ * and kept in a WidgetTree.
+ * @author Brandon Blaschke
+ */
+public abstract class Widget {
+	
+	/**
+	 * X coordinate of the touch area.
+	 */
+	protected float x;
+	
+	/**
+	 * Y coordinate of the touch area.
+	 */
+	protected float y;
+	
+	/**
+	 * Width of the touch area.
+	 */
+	protected float width;
+	
+	/**
+	 * Height of the touch area.
+	 */
+	protected float height;
+	
+	/**
+	 * Create a Widget.
+	 * @param x X coordinate of the touch area.
+	 * @param y Y coordinate of the touch area.
+	 * @param width Width of the touch area.
+	 * @param height Height of the touch area.
+	 */
+	public Widget(float x, float y, float width, float height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * Determines if a point is within the widget. By default the whole touch area counts.
+	 * @param px Point x position.
+	 * @param py Point y position.
+	 * @return True if point is within the widget, false otherwise.
+	 */
+	public boolean contains(float px, float py) {
+		if (px < x || px > (x + width))
+			return false;
+		
+		if (py < y || py > (y + height))
+			return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Draw the widget. Widgets that are drawn elsewhere leave this empty.
+	 * @param parent PApplet to draw to.
+	 */
+	public void display(PApplet parent) {
+	}
+	
+	/**
+	 * Checks if holding the widget down presses it again and again.
+	 * @return True if the widget repeats, false by default.
+	 */
+	public boolean repeats() {
+		return false;
+	}
+	
+	/**
+	 * Called once when a widget that doesn't repeat is held down for a while. By default
+	 * this presses the widget, so holding it acts like a single tap.
+	 */
+	public void longPress() {
+		press();
+	}
+	
+	/**
+	 * Called when the widget is tapped, or repeatedly while held if it repeats.
+	 */
+	public abstract void press();
+}
@@ -0,0 +1,122 @@
+package View;
+
+import java.util.ArrayList;
+
+import processing.core.PApplet;
+
+/** The widgets on one screen, with a grid over the screen so a touch only has to be
+ * checked against the widgets in the cell it landed in.
+ * @author Brandon Blaschke
+ */
+public class WidgetTree {
+	
+	/**
+	 * Size of a grid cell in pixels.
+	 */
+	private static final int CELL_SIZE = 40;
+	
+	/**
+	 * Widgets in the order they were added, later widgets are on top.
+	 */
+	private ArrayList<Widget> widgets;
+	
+	/**
+	 * Widgets overlapping each cell, bottom to top.
+	 */
+	private ArrayList<ArrayList<Widget>> cells;
+	
+	/**
+	 * Number of columns in the grid.
+	 */
+	private int columns;
+	
+	/**
+	 * Number of rows in the grid.
+	 */
+	private int rows;
+	
+	/**
+	 * Create an empty WidgetTree.
+	 * @param screenWidth Width of the screen.
+	 * @param screenHeight Height of the screen.
+	 */
+	public WidgetTree(int screenWidth, int screenHeight) {
+		widgets = new ArrayList<Widget>();
+		columns = (screenWidth + CELL_SIZE - 1) / CELL_SIZE;
+		rows = (screenHeight + CELL_SIZE - 1) / CELL_SIZE;
+		cells = new ArrayList<ArrayList<Widget>>(columns * rows);
+		for (int i = 0; i < columns * rows; i++) {
+			cells.add(new ArrayList<Widget>(2));
+		}
+	}
+	
+	/**
+	 * Add a widget on top of the others.
+	 * @param widget Widget to add.
+	 */
+	public void add(Widget widget) {
+		widgets.add(widget);
+		
+		int left = column(widget.x);
+		int right = column(widget.x + widget.width);
+		int top = row(widget.y);
+		int bottom = row(widget.y + widget.height);
+		for (int r = top; r <= bottom; r++) {
+			for (int c = left; c <= right; c++) {
+				cells.get(r * columns + c).add(widget);
+			}
+		}
+	}
+	
+	/**
+	 * Find the top widget under a point.
+	 * @param px Point x position.
+	 * @param py Point y position.
+	 * @return Widget under the point, or null if there is none.
+	 */
+	public Widget hitTest(float px, float py) {
+		if (px < 0 || py < 0)
+			return null;
+		
+		int c = (int) px / CELL_SIZE;
+		int r = (int) py / CELL_SIZE;
+		if (c >= columns || r >= rows)
+			return null;
+		
+		ArrayList<Widget> cell = cells.get(r * columns + c);
+		for (int i = cell.size() - 1; i >= 0; i--) {
+			Widget widget = cell.get(i);
+			if (widget.contains(px, py))
+				return widget;
+		}
+		return null;
+	}
+	
+	/**
+	 * Draw every widget.
+	 * @param parent PApplet to draw to.
+	 */
+	public void display(PApplet parent) {
+		for (int i = 0; i < widgets.size(); i++) {
+			widgets.get(i).display(parent);
+		}
+	}
+	
+	/**
+	 * Column of the grid an x position falls in, clamped to the grid.
+	 * @param px X position.
+	 * @return Column index.
+	 */
+	private int column(float px) {
+		return Math.max(0, Math.min(columns - 1, (int) px / CELL_SIZE));
+	}
+	
+	/**
+	 * Row of the grid a y position falls in, clamped to the grid.
+	 * @param py Y position.
+	 * @return Row index.
+	 */
+	private int row(float py) {
+		return Math.max(0, Math.min(rows - 1, (int) py / CELL_SIZE));
+	}
+}
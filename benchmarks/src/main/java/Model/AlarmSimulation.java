@@ -0,0 +1,406 @@
+package Model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import Util.SimulatedClock;
+
+/**
+ * @author Brandon Blaschke
+ * Runs the ClockModel on simulated time for weeks at a time in a fraction of a second.
+ * Alarms are set, moved, turned on and off, snoozed and stopped at random, and every
+ * alarm must fire exactly once at each instant it is due, including across the daylight
+ * saving time changes. The time is advanced the way the scheduler thread sleeps: to the
+ * next due time, or a minute at most.
+ *
+ * Run with java -cp benchmarks/target/benchmarks.jar Model.AlarmSimulation
+ * [zone start-date days alarms seed]
+ */
+public class AlarmSimulation implements AlarmListener {
+	
+	/**
+	 * Longest the scheduler sleeps for.
+	 */
+	private static final Duration MAX_SLEEP = Duration.ofMinutes(1);
+	
+	/**
+	 * How long the alarm snoozes for.
+	 */
+	private static final Duration SNOOZE = Duration.ofMinutes(10);
+	
+	/**
+	 * Chance of changing an alarm after each check.
+	 */
+	private static final double EDIT_CHANCE = 0.002;
+	
+	/**
+	 * Chance of snoozing instead of stopping an alarm that went off.
+	 */
+	private static final double SNOOZE_CHANCE = 0.3;
+	
+	/**
+	 * Runs made when none is given, as zone, start date, days, alarms and seed: a month
+	 * across each daylight saving time change.
+	 */
+	static final String[][] DEFAULT_RUNS = {
+		{"America/New_York", "2020-02-20", "31", "20", "1"},
+		{"America/New_York", "2020-10-15", "31", "20", "2"},
+		{"Australia/Lord_Howe", "2020-03-20", "31", "20", "3"}
+	};
+	
+	/**
+	 * Time zone being simulated.
+	 */
+	private ZoneId zone;
+	
+	/**
+	 * Simulated time.
+	 */
+	private SimulatedClock clock;
+	
+	/**
+	 * Model under test.
+	 */
+	private ClockModel model;
+	
+	/**
+	 * Where the model saves its alarms.
+	 */
+	private AlarmStore store;
+	
+	/**
+	 * Random choices, seeded so a run can be repeated.
+	 */
+	private Random random;
+	
+	/**
+	 * When each alarm fired, by alarm number.
+	 */
+	private HashMap<Integer, List<Instant>> fires;
+	
+	/**
+	 * When the snooze fired.
+	 */
+	private List<Instant> snoozeFires;
+	
+	/**
+	 * Settings each alarm had over time, by alarm number.
+	 */
+	private HashMap<Integer, List<Setting>> settings;
+	
+	/**
+	 * When the snooze should fire, in the order they were set, and the ones cancelled.
+	 */
+	private List<Instant> expectedSnoozes;
+	
+	/**
+	 * Snooze that is waiting to fire, null if none.
+	 */
+	private Instant pendingSnooze;
+	
+	/**
+	 * Snoozes that were due but didn't fire.
+	 */
+	private List<String> missedSnoozes;
+	
+	/**
+	 * Number of alarm checks made.
+	 */
+	private long checks;
+	
+	/**
+	 * Create an AlarmSimulation.
+	 * @param zone Time zone to simulate.
+	 * @param start Local date to start at midnight.
+	 * @param alarms Number of alarms.
+	 * @param seed Seed of the random choices.
+	 * @param dir Folder the alarms are saved to.
+	 */
+	public AlarmSimulation(ZoneId zone, LocalDate start, int alarms, long seed, File dir) {
+		this.zone = zone;
+		clock = new SimulatedClock(start.atStartOfDay(zone).toInstant(), zone);
+		random = new Random(seed);
+		fires = new HashMap<Integer, List<Instant>>();
+		snoozeFires = new ArrayList<Instant>();
+		settings = new HashMap<Integer, List<Setting>>();
+		expectedSnoozes = new ArrayList<Instant>();
+		missedSnoozes = new ArrayList<String>();
+		
+		AudioPlayer silent = new AudioPlayer(new SoundLibrary(dir, 0)) {
+			@Override
+			public synchronized void play(long scheduled, String name) {
+				// Nothing to hear on simulated time.
+			}
+		};
+		store = new AlarmStore(new File(dir, "alarms.dat"), new File(dir, "alarms.txt"));
+		model = new ClockModel(alarms, store, clock, silent, false);
+		model.addAlarmListener(this);
+		
+		for (Alarm alarm : model.getAlarms()) {
+			fires.put(alarm.number, new ArrayList<Instant>());
+			settings.put(alarm.number, new ArrayList<Setting>());
+			change(alarm.number, randomTime(), true);
+		}
+	}
+	
+	/**
+	 * Run for a number of days.
+	 * @param days Days to run for.
+	 * @return Problems found, empty if every alarm fired when it should.
+	 */
+	public List<String> run(int days) {
+		Instant start = clock.instant();
+		Instant end = start.plus(Duration.ofDays(days));
+		
+		while (clock.instant().isBefore(end)) {
+			Instant next = clock.instant().plus(MAX_SLEEP);
+			Instant due = model.nextDueTime();
+			if (due != null && due.isBefore(next))
+				next = due.isAfter(clock.instant()) ? due : clock.instant();
+			if (next.isAfter(end))
+				next = end;
+			
+			clock.set(next);
+			model.checkAlarm();
+			checks++;
+			
+			if (pendingSnooze != null && !clock.instant().isBefore(pendingSnooze)) {
+				missedSnoozes.add("snooze due at " + at(pendingSnooze) + " didn't fire");
+				pendingSnooze = null;
+			}
+			
+			if (model.isAlarmOn()) {
+				if (random.nextDouble() < SNOOZE_CHANCE) {
+					model.setSnooze();
+					pendingSnooze = clock.instant().plus(SNOOZE);
+				} else {
+					model.stopAlarm();
+					pendingSnooze = null;
+				}
+			}
+			
+			if (random.nextDouble() < EDIT_CHANCE) {
+				int number = 1 + random.nextInt(fires.size());
+				if (random.nextBoolean()) {
+					change(number, randomTime(), current(number).active);
+				} else {
+					change(number, current(number).time, !current(number).active);
+				}
+			}
+		}
+		store.flush();
+		
+		return verify(start, end);
+	}
+	
+	@Override
+	public void alarmFired(Alarm alarm) {
+		fires.get(alarm.number).add(clock.instant());
+	}
+	
+	@Override
+	public void snoozeFired() {
+		snoozeFires.add(clock.instant());
+		if (pendingSnooze != null)
+			expectedSnoozes.add(pendingSnooze);
+		pendingSnooze = null;
+	}
+	
+	/**
+	 * Number of alarm checks made.
+	 * @return Number of checks.
+	 */
+	public long getChecks() {
+		return checks;
+	}
+	
+	/**
+	 * Number of alarms and snoozes fired.
+	 * @return Number of fires.
+	 */
+	public long getFires() {
+		long n = snoozeFires.size();
+		for (List<Instant> list : fires.values()) {
+			n += list.size();
+		}
+		return n;
+	}
+	
+	/**
+	 * Change an alarm through the model and remember the setting.
+	 * @param number Alarm number.
+	 * @param time New time.
+	 * @param active New active state.
+	 */
+	private void change(int number, LocalTime time, boolean active) {
+		try {
+			model.setAlarm(number, time);
+			model.setAlarm(number, active);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		settings.get(number).add(new Setting(clock.instant(), time, active));
+	}
+	
+	/**
+	 * Latest setting of an alarm.
+	 * @param number Alarm number.
+	 * @return Current setting.
+	 */
+	private Setting current(int number) {
+		List<Setting> list = settings.get(number);
+		return list.get(list.size() - 1);
+	}
+	
+	/**
+	 * Random alarm time, often in the hours the clocks change at.
+	 * @return Time of day.
+	 */
+	private LocalTime randomTime() {
+		if (random.nextInt(4) == 0)
+			return LocalTime.of(1 + random.nextInt(2), random.nextInt(60), random.nextInt(60));
+		return LocalTime.ofSecondOfDay(random.nextInt(24 * 60 * 60));
+	}
+	
+	/**
+	 * Compare when each alarm fired with when it was due.
+	 * @param start Start of the run.
+	 * @param end End of the run.
+	 * @return Problems found.
+	 */
+	private List<String> verify(Instant start, Instant end) {
+		List<String> problems = new ArrayList<String>(missedSnoozes);
+		
+		for (Integer number : settings.keySet()) {
+			List<Instant> expected = new ArrayList<Instant>();
+			List<Setting> list = settings.get(number);
+			for (int i = 0; i < list.size(); i++) {
+				Setting setting = list.get(i);
+				Instant until = i + 1 < list.size() ? list.get(i + 1).from : end;
+				if (!setting.active)
+					continue;
+				
+				// Due instants in (from, until].
+				LocalDate date = LocalDateTime.ofInstant(setting.from, zone).toLocalDate().minusDays(1);
+				while (true) {
+					Instant due = firstInstant(date.atTime(setting.time));
+					if (due.isAfter(until))
+						break;
+					if (due.isAfter(setting.from))
+						expected.add(due);
+					date = date.plusDays(1);
+				}
+			}
+			
+			List<Instant> actual = new ArrayList<Instant>(fires.get(number));
+			Collections.sort(actual);
+			if (!expected.equals(actual))
+				problems.add(describe("alarm " + number, expected, actual));
+		}
+		
+		if (!expectedSnoozes.equals(snoozeFires))
+			problems.add(describe("snooze", expectedSnoozes, snoozeFires));
+		
+		return problems;
+	}
+	
+	/**
+	 * First instant the local time reaches the given time, the moment the clocks go
+	 * forward if the time is skipped.
+	 * @param local Local date and time.
+	 * @return Instant it is due.
+	 */
+	private Instant firstInstant(LocalDateTime local) {
+		ZoneRules rules = zone.getRules();
+		List<ZoneOffset> offsets = rules.getValidOffsets(local);
+		if (offsets.isEmpty())
+			return rules.getTransition(local).getInstant();
+		return local.toInstant(offsets.get(0));
+	}
+	
+	/**
+	 * Describe the first difference between the expected and actual fire times.
+	 */
+	private String describe(String what, List<Instant> expected, List<Instant> actual) {
+		int i = 0;
+		while (i < expected.size() && i < actual.size() && expected.get(i).equals(actual.get(i))) {
+			i++;
+		}
+		return String.format("%s: expected %d fires, got %d, first difference at #%d: expected %s, got %s",
+				what, expected.size(), actual.size(), i,
+				i < expected.size() ? at(expected.get(i)) : "none",
+				i < actual.size() ? at(actual.get(i)) : "none");
+	}
+	
+	/**
+	 * Instant as local and UTC time.
+	 */
+	private String at(Instant instant) {
+		return LocalDateTime.ofInstant(instant, zone) + " (" + instant + ")";
+	}
+	
+	/**
+	 * Time and active state an alarm had from an instant on.
+	 */
+	private static class Setting {
+		final Instant from;
+		final LocalTime time;
+		final boolean active;
+		
+		Setting(Instant from, LocalTime time, boolean active) {
+			this.from = from;
+			this.time = time;
+			this.active = active;
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		List<String[]> runs = new ArrayList<String[]>();
+		if (args.length >= 5) {
+			runs.add(args);
+		} else {
+			runs.addAll(Arrays.asList(DEFAULT_RUNS));
+		}
+		
+		boolean passed = true;
+		for (String[] run : runs) {
+			File dir = Files.createTempDirectory("alarm-simulation").toFile();
+			try {
+				long started = System.nanoTime();
+				AlarmSimulation simulation = new AlarmSimulation(ZoneId.of(run[0]), LocalDate.parse(run[1]),
+						Integer.parseInt(run[3]), Long.parseLong(run[4]), dir);
+				List<String> problems = simulation.run(Integer.parseInt(run[2]));
+				long millis = (System.nanoTime() - started) / 1000000;
+				
+				System.out.println(String.format("%s from %s for %s days: %d checks, %d fires in %dms, %s",
+						run[0], run[1], run[2], simulation.getChecks(), simulation.getFires(), millis,
+						problems.isEmpty() ? "ok" : "FAILED"));
+				for (String problem : problems) {
+					System.out.println("  " + problem);
+				}
+				passed &= problems.isEmpty();
+			} finally {
+				for (File file : dir.listFiles()) {
+					file.delete();
+				}
+				dir.delete();
+			}
+		}
+		System.exit(passed ? 0 : 1);
+	}
+}
@@ -0,0 +1,107 @@
+package Model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Brandon Blaschke
+ * Saving the alarms to disk and reading them back, the work behind ClockModel's
+ * saveAlarms() and readAlarms().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlarmStoreBenchmark {
+	
+	/**
+	 * Number of alarms saved.
+	 */
+	@Param({"3", "100"})
+	public int alarms;
+	
+	/**
+	 * Store being saved to.
+	 */
+	private AlarmStore store;
+	
+	/**
+	 * Alarms saved each time.
+	 */
+	private List<Alarm> list;
+	
+	/**
+	 * Directory the store writes to.
+	 */
+	private File dir;
+	
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("alarm-store-bench").toFile();
+		store = new AlarmStore(new File(dir, "alarms.dat"), new File(dir, "alarms.txt"));
+		list = new ArrayList<Alarm>();
+		for (int i = 0; i < alarms; i++) {
+			list.add(new Alarm(i + 1, LocalTime.ofSecondOfDay(i * 60 % 86400)));
+		}
+		store.save(list);
+		store.flush();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	/**
+	 * Encode the alarms, the only part of a save done on the caller's thread.
+	 */
+	@Benchmark
+	public byte[] encode() {
+		return AlarmStore.encode(list);
+	}
+	
+	/**
+	 * Save and write straight to disk, including the fsync and rename.
+	 */
+	@Benchmark
+	public long saveAndFlush() {
+		store.save(list);
+		store.flush();
+		return store.getWrites();
+	}
+	
+	@Benchmark
+	public List<Alarm> load() {
+		return store.load();
+	}
+	
+	@Benchmark
+	public List<Alarm> roundTrip() {
+		store.save(list);
+		store.flush();
+		return store.load();
+	}
+}
@@ -0,0 +1,91 @@
+package Model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Brandon Blaschke
+ * Mixing one chunk of audio, the work AudioPlayer's writer thread does for every 4 KiB
+ * written to the sound card: each voice ramping, the master wake ramp and the limiter.
+ * Run with -prof gc to check a chunk allocates nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioMixerBenchmark {
+	
+	/**
+	 * Frames in a chunk, 4 KiB of 16 bit stereo.
+	 */
+	private static final int FRAMES = 1024;
+	
+	/**
+	 * Number of sounds mixed.
+	 */
+	@Param({"1", "2"})
+	public int voices;
+	
+	/**
+	 * Mixer being measured.
+	 */
+	private AudioMixer mixer;
+	
+	/**
+	 * Chunk of loud noise for each voice, loud enough together to need limiting.
+	 */
+	private byte[][] pcm;
+	
+	/**
+	 * Volume of each voice, ramping for the whole run.
+	 */
+	private GainRamp[] gains;
+	
+	/**
+	 * Chunk written to the sound card.
+	 */
+	private byte[] out;
+	
+	@Setup
+	public void setup() {
+		mixer = new AudioMixer(FRAMES, 2, 44100f);
+		mixer.getMaster().set(0.05);
+		mixer.getMaster().rampTo(1, Long.MAX_VALUE);
+		Random random = new Random(1);
+		pcm = new byte[voices][FRAMES * 4];
+		gains = new GainRamp[voices];
+		for (int i = 0; i < voices; i++) {
+			random.nextBytes(pcm[i]);
+			gains[i] = new GainRamp(0);
+			gains[i].rampTo(1, Long.MAX_VALUE);
+		}
+		out = new byte[FRAMES * 4];
+	}
+	
+	/**
+	 * Mix one chunk.
+	 */
+	@Benchmark
+	public byte[] mixChunk() {
+		mixer.begin(FRAMES);
+		for (int i = 0; i < voices; i++) {
+			mixer.add(pcm[i], pcm[i].length, gains[i]);
+		}
+		mixer.end(out);
+		return out;
+	}
+}
@@ -0,0 +1,76 @@
+package Model;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Brandon Blaschke
+ * Cost of one alarm check with a small and a very large number of alarms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckAlarmBenchmark {
+	
+	/**
+	 * Number of alarms in the model.
+	 */
+	@Param({"3", "100", "10000"})
+	public int alarms;
+	
+	/**
+	 * Model being checked.
+	 */
+	private ClockModel model;
+	
+	/**
+	 * Directory the model saves its alarms to.
+	 */
+	private File dir;
+	
+	@Setup
+	public void setup() throws Exception {
+		dir = Files.createTempDirectory("alarm-bench").toFile();
+		model = new ClockModel(alarms, new AlarmStore(new File(dir, "alarms.dat"), new File(dir, "alarms.txt")));
+		
+		// Spread the alarms over the half of the day furthest from now so none go off.
+		LocalTime start = LocalTime.now().plusHours(6);
+		int spacing = 12 * 60 * 60 / alarms;
+		for (Alarm alarm : model.getAlarms()) {
+			model.setAlarm(alarm.number, start.plusSeconds((long) (alarm.number - 1) * spacing));
+			model.setAlarm(alarm.number, true);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	@Benchmark
+	public boolean checkAlarm() {
+		model.checkAlarm();
+		return model.isAlarmOn();
+	}
+}
@@ -0,0 +1,264 @@
+package Model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Brandon Blaschke
+ * Runs several clocks in one process sharing their alarms over multicast on the loopback
+ * interface. Alarms are changed at random on random clocks, sometimes on two clocks at
+ * once, and the time until every clock has the same alarms is measured. One clock is
+ * then taken off the network while the others change, and the time it takes to catch up
+ * when it comes back is measured as well.
+ *
+ * Run with java -cp benchmarks/target/benchmarks.jar Model.ReplicationCheck
+ * [clocks changes port]
+ */
+public class ReplicationCheck {
+	
+	/**
+	 * Longest every clock may take to agree.
+	 */
+	private static final long CONVERGE_MILLIS = 1000;
+	
+	/**
+	 * Number of alarms on each clock.
+	 */
+	private static final int ALARMS = 3;
+	
+	/**
+	 * Clocks being replicated.
+	 */
+	private List<ClockModel> models;
+	
+	/**
+	 * Replicator of each clock.
+	 */
+	private List<AlarmReplicator> replicators;
+	
+	/**
+	 * Where each clock saves its alarms.
+	 */
+	private List<AlarmStore> stores;
+	
+	/**
+	 * Folder each clock saves to.
+	 */
+	private List<File> dirs;
+	
+	/**
+	 * Port the clocks share.
+	 */
+	private int port;
+	
+	/**
+	 * Random changes, seeded so a run can be repeated.
+	 */
+	private Random random;
+	
+	/**
+	 * Create the clocks and start replicating.
+	 * @param clocks Number of clocks.
+	 * @param port Port the clocks share.
+	 * @throws IOException If a folder couldn't be made.
+	 */
+	public ReplicationCheck(int clocks, int port) throws IOException {
+		this.port = port;
+		random = new Random(1);
+		models = new ArrayList<ClockModel>();
+		replicators = new ArrayList<AlarmReplicator>();
+		stores = new ArrayList<AlarmStore>();
+		dirs = new ArrayList<File>();
+		for (int i = 0; i < clocks; i++) {
+			File dir = Files.createTempDirectory("replication").toFile();
+			dirs.add(dir);
+			AudioPlayer silent = new AudioPlayer(new SoundLibrary(dir, 0)) {
+				@Override
+				public synchronized void play(long scheduled, String name) {
+					// Only the alarm settings matter here.
+				}
+			};
+			AlarmStore store = new AlarmStore(new File(dir, "alarms.dat"), null);
+			stores.add(store);
+			models.add(new ClockModel(ALARMS, store, Clock.systemDefaultZone(), silent, false));
+			replicators.add(null);
+			connect(i);
+		}
+	}
+	
+	/**
+	 * Start replicating a clock.
+	 * @param i Index of the clock.
+	 */
+	private void connect(int i) {
+		AlarmReplicator replicator = new AlarmReplicator(models.get(i), AlarmReplicator.DEFAULT_GROUP, port, "lo");
+		if (!replicator.start())
+			throw new IllegalStateException("Couldn't join the multicast group on lo");
+		replicators.set(i, replicator);
+	}
+	
+	/**
+	 * Run the check.
+	 * @param changes Number of random changes.
+	 * @return True if every clock agreed in time after every change.
+	 * @throws Exception If a change couldn't be made.
+	 */
+	public boolean run(int changes) throws Exception {
+		long start = System.nanoTime();
+		while (true) {
+			boolean found = true;
+			for (AlarmReplicator replicator : replicators) {
+				found &= replicator.getPeerCount() == replicators.size() - 1;
+			}
+			if (found)
+				break;
+			if (System.nanoTime() - start > CONVERGE_MILLIS * 1000000L * 5) {
+				System.out.println("clocks didn't find each other");
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		System.out.println(String.format("%d clocks found each other in %dms", models.size(),
+				(System.nanoTime() - start) / 1000000));
+		
+		long[] times = new long[changes];
+		for (int i = 0; i < changes; i++) {
+			change(models.get(random.nextInt(models.size())));
+			if (random.nextInt(5) == 0)
+				change(models.get(random.nextInt(models.size())));
+			times[i] = converge();
+			if (times[i] < 0) {
+				System.out.println("clocks didn't agree after change " + i + ": " + describe());
+				return false;
+			}
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("%d changes: p50 %.2fms, p99 %.2fms, max %.2fms", changes,
+				times[changes / 2] / 1e6, times[Math.min(changes - 1, changes * 99 / 100)] / 1e6, times[changes - 1] / 1e6));
+		
+		// Take the last clock off the network, change the rest, and bring it back.
+		int last = models.size() - 1;
+		replicators.get(last).stop();
+		for (int i = 0; i < 10; i++) {
+			change(models.get(random.nextInt(last)));
+		}
+		Thread.sleep(100);
+		connect(last);
+		long caughtUp = converge();
+		if (caughtUp < 0) {
+			System.out.println("clock didn't catch up: " + describe());
+			return false;
+		}
+		System.out.println(String.format("clock off the network caught up in %.2fms", caughtUp / 1e6));
+		return true;
+	}
+	
+	/**
+	 * Change the time, active state or both of a random alarm.
+	 * @param model Clock to change.
+	 * @throws Exception If the change couldn't be made.
+	 */
+	private void change(ClockModel model) throws Exception {
+		int number = 1 + random.nextInt(ALARMS);
+		int what = random.nextInt(3);
+		if (what != 1)
+			model.setAlarm(number, LocalTime.ofSecondOfDay(random.nextInt(24 * 60) * 60));
+		if (what != 0)
+			model.setAlarm(number, random.nextBoolean());
+	}
+	
+	/**
+	 * Wait until every clock has the same alarms.
+	 * @return Nanoseconds it took, or -1 if they didn't agree in time.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private long converge() throws InterruptedException {
+		long start = System.nanoTime();
+		while (!agree()) {
+			if (System.nanoTime() - start > CONVERGE_MILLIS * 1000000L)
+				return -1;
+			Thread.sleep(0, 200000);
+		}
+		return System.nanoTime() - start;
+	}
+	
+	/**
+	 * Check if every clock has the same alarms.
+	 * @return True if they agree.
+	 */
+	private boolean agree() {
+		String first = describe(models.get(0));
+		for (ClockModel model : models) {
+			if (!describe(model).equals(first))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Alarms of every clock.
+	 */
+	private String describe() {
+		StringBuilder sb = new StringBuilder();
+		for (ClockModel model : models) {
+			sb.append("\n  ").append(describe(model));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Alarms of a clock.
+	 */
+	private static String describe(ClockModel model) {
+		StringBuilder sb = new StringBuilder();
+		for (Alarm alarm : model.getAlarms()) {
+			sb.append(String.format("%d %s %s v%d/%x  ", alarm.number, alarm.time, alarm.isActive ? "on" : "off",
+					alarm.version, alarm.writer));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Stop the clocks and delete their folders.
+	 */
+	public void close() {
+		for (AlarmReplicator replicator : replicators) {
+			replicator.stop();
+		}
+		for (AlarmStore store : stores) {
+			store.flush();
+		}
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int clocks = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int changes = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : AlarmReplicator.DEFAULT_PORT + 1;
+		
+		ReplicationCheck check = new ReplicationCheck(clocks, port);
+		boolean passed;
+		try {
+			passed = check.run(changes);
+		} finally {
+			check.close();
+		}
+		System.out.println(passed ? "ok" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+}
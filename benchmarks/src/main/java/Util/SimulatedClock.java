@@ -0,0 +1,73 @@
+package Util;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * @author Brandon Blaschke
+ * Clock that only moves when it is advanced or set, for running the clock on simulated time.
+ */
+public class SimulatedClock extends Clock {
+	
+	/**
+	 * Current simulated instant.
+	 */
+	private volatile Instant instant;
+	
+	/**
+	 * Time zone of the clock.
+	 */
+	private final ZoneId zone;
+	
+	/**
+	 * Create a SimulatedClock.
+	 * @param start Instant to start at.
+	 * @param zone Time zone of the clock.
+	 */
+	public SimulatedClock(Instant start, ZoneId zone) {
+		instant = start;
+		this.zone = zone;
+	}
+	
+	/**
+	 * Move the clock forward.
+	 * @param duration How far to move it.
+	 */
+	public void advance(Duration duration) {
+		instant = instant.plus(duration);
+	}
+	
+	/**
+	 * Move the clock to an instant, forwards or backwards.
+	 * @param newInstant Instant to move to.
+	 */
+	public void set(Instant newInstant) {
+		instant = newInstant;
+	}
+	
+	/**
+	 * Current local date and time.
+	 * @return Local date and time in the clock's zone.
+	 */
+	public LocalDateTime now() {
+		return LocalDateTime.ofInstant(instant, zone);
+	}
+	
+	@Override
+	public ZoneId getZone() {
+		return zone;
+	}
+	
+	@Override
+	public Clock withZone(ZoneId newZone) {
+		return new SimulatedClock(instant, newZone);
+	}
+	
+	@Override
+	public Instant instant() {
+		return instant;
+	}
+}
@@ -0,0 +1,346 @@
+package View;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import Controller.Controller;
+import Model.Alarm;
+import Model.AlarmStore;
+import Model.ClockModel;
+import Util.SimulatedClock;
+import processing.awt.PGraphicsJava2D;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/**
+ * @author Brandon Blaschke
+ * Draws the View into an off-screen buffer with no window, so the cost of a frame can be
+ * measured on a machine without a display. Scripted touches and simulated time take the
+ * clock through the main, alarm settings and snooze screens, and the time and bytes
+ * allocated for every frame are reported per screen.
+ *
+ * Run with java -cp benchmarks/target/benchmarks.jar View.FrameHarness [frames per step]
+ */
+public class FrameHarness {
+
+	/**
+	 * Size of the screen.
+	 */
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 480;
+
+	/**
+	 * Simulated time between frames, 60 frames a second.
+	 */
+	private static final long FRAME_NANOS = 1000000000L / 60;
+	private static final Duration FRAME = Duration.ofNanos(FRAME_NANOS);
+
+	/**
+	 * Frames drawn before measuring, so the JIT has compiled the drawing code.
+	 */
+	private static final int WARMUP_FRAMES = 300;
+
+	/**
+	 * Applet the View draws with.
+	 */
+	private HeadlessApplet applet;
+
+	/**
+	 * Model the View shows.
+	 */
+	private ClockModel model;
+
+	/**
+	 * Where the model saves its alarms.
+	 */
+	private AlarmStore store;
+
+	/**
+	 * View being measured.
+	 */
+	private View view;
+
+	/**
+	 * Simulated time.
+	 */
+	private SimulatedClock clock;
+
+	/**
+	 * Simulated System.nanoTime() of the next frame.
+	 */
+	private long frameNanos;
+
+	/**
+	 * Per frame samples, by the screen showing when the frame started.
+	 */
+	private Map<Views, Samples> samples;
+
+	/**
+	 * True once measuring, frames before that are warmup.
+	 */
+	private boolean measuring;
+
+	/**
+	 * Thread bean that counts the bytes allocated by this thread.
+	 */
+	private com.sun.management.ThreadMXBean threads;
+
+	/**
+	 * Create a FrameHarness with a model saving to a temporary folder.
+	 * @param dir Folder the alarms are saved to.
+	 */
+	public FrameHarness(File dir) {
+		ZoneId zone = ZoneId.systemDefault();
+		clock = new SimulatedClock(LocalDateTime.of(2020, 1, 6, 6, 59, 0).atZone(zone).toInstant(), zone);
+
+		applet = new HeadlessApplet();
+		applet.g = applet.makeGraphics(WIDTH, HEIGHT, HeadlessGraphics.class.getName(), null, true);
+		applet.width = WIDTH;
+		applet.height = HEIGHT;
+
+		// Colors and text need the graphics to be drawing while the View is created.
+		applet.g.beginDraw();
+		store = new AlarmStore(new File(dir, "alarms.dat"), new File(dir, "alarms.txt"));
+		model = new ClockModel(3, store, clock);
+		view = new View(model, new Controller(model), applet);
+		applet.g.endDraw();
+
+		samples = new EnumMap<Views, Samples>(Views.class);
+		for (Views v : Views.values()) {
+			samples.put(v, new Samples());
+		}
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	}
+
+	/**
+	 * Run the script once to warm up and once to measure, then print the results.
+	 * @param frames Number of frames to stay on each screen.
+	 */
+	public void run(int frames) {
+		measuring = false;
+		runScript(Math.max(1, WARMUP_FRAMES / 3));
+
+		for (Samples s : samples.values()) {
+			s.clear();
+		}
+		measuring = true;
+		runScript(frames);
+		store.flush();
+
+		System.out.println(report());
+	}
+
+	/**
+	 * Take the clock through every screen: idle on the main display, edit an alarm,
+	 * and let an alarm go off then turn it off.
+	 * @param frames Number of frames to stay on each screen.
+	 */
+	private void runScript(int frames) {
+		Alarm alarm = model.getAlarms().get(0);
+
+		// Main display, the time text changes every 60 frames.
+		idle(frames);
+
+		// Open the first alarm's settings and hold the minute arrow so it repeats.
+		tap(60, 125);
+		hold(385, 160, frames / 2);
+		idle(frames / 2);
+		tap(25, 25);
+
+		// Set the alarm for the next minute, wait for it to go off, then turn it off.
+		try {
+			model.setAlarm(alarm.number, clock.now().toLocalTime().withSecond(0).withNano(0).plusMinutes(1));
+			model.setAlarm(alarm.number, true);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		while (!model.isAlarmOn()) {
+			frame();
+		}
+		idle(frames);
+		tap(400, 225);
+		idle(10);
+
+		try {
+			model.setAlarm(alarm.number, false);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Draw frames without touching the screen.
+	 * @param frames Number of frames.
+	 */
+	private void idle(int frames) {
+		for (int i = 0; i < frames; i++) {
+			frame();
+		}
+	}
+
+	/**
+	 * Touch and let go of a point, as a quick tap.
+	 * @param x X position.
+	 * @param y Y position.
+	 */
+	private void tap(int x, int y) {
+		hold(x, y, 5);
+		idle(5);
+	}
+
+	/**
+	 * Touch a point and hold it down.
+	 * @param x X position.
+	 * @param y Y position.
+	 * @param frames Number of frames to hold for.
+	 */
+	private void hold(int x, int y, int frames) {
+		view.getInputQueue().offer(InputQueue.PRESS, x, y, frameNanos);
+		idle(frames);
+		view.getInputQueue().offer(InputQueue.RELEASE, x, y, frameNanos);
+		frame();
+	}
+
+	/**
+	 * Draw one frame, advancing simulated time and checking the alarms first as the
+	 * scheduler thread would.
+	 */
+	private void frame() {
+		frameNanos += FRAME_NANOS;
+		clock.advance(FRAME);
+		model.checkAlarm();
+
+		Views shown = view.getDisplay();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+
+		applet.g.beginDraw();
+		applet.clear();
+		view.display(frameNanos);
+		applet.g.endDraw();
+
+		long time = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		if (measuring)
+			samples.get(shown).add(time, allocated);
+	}
+
+	/**
+	 * Results of the measured run, one line per screen.
+	 * @return Report of the frame times and allocations.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-24s %7s %9s %9s %9s %9s %12s %12s%n",
+				"screen", "frames", "p50 ms", "p90 ms", "p99 ms", "max ms", "p50 bytes", "p99 bytes"));
+		for (Map.Entry<Views, Samples> entry : samples.entrySet()) {
+			Samples s = entry.getValue();
+			if (s.size() == 0)
+				continue;
+			sb.append(String.format("%-24s %7d %9.3f %9.3f %9.3f %9.3f %12d %12d%n",
+					entry.getKey(), s.size(),
+					s.timePercentile(50) / 1e6, s.timePercentile(90) / 1e6,
+					s.timePercentile(99) / 1e6, s.timePercentile(100) / 1e6,
+					s.bytesPercentile(50), s.bytesPercentile(99)));
+		}
+		sb.append("input latency " + view.getInputLatency());
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+
+		File dir = Files.createTempDirectory("frame-harness").toFile();
+		try {
+			new FrameHarness(dir).run(frames);
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Frame times and allocations of one screen.
+	 */
+	private static class Samples {
+		private List<long[]> frames = new ArrayList<long[]>();
+
+		void add(long nanos, long bytes) {
+			frames.add(new long[] {nanos, bytes});
+		}
+
+		void clear() {
+			frames.clear();
+		}
+
+		int size() {
+			return frames.size();
+		}
+
+		long timePercentile(double percentile) {
+			return percentile(0, percentile);
+		}
+
+		long bytesPercentile(double percentile) {
+			return percentile(1, percentile);
+		}
+
+		private long percentile(int column, double percentile) {
+			long[] values = new long[frames.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = frames.get(i)[column];
+			}
+			Arrays.sort(values);
+			int index = (int) Math.ceil(percentile / 100 * values.length) - 1;
+			return values[Math.max(0, Math.min(values.length - 1, index))];
+		}
+	}
+
+	/**
+	 * Applet whose off-screen buffers are headless as well.
+	 */
+	private static class HeadlessApplet extends PApplet {
+		@Override
+		public PGraphics createGraphics(int w, int h) {
+			return makeGraphics(w, h, HeadlessGraphics.class.getName(), null, false);
+		}
+
+		// Overridden so the harness can make the main graphics itself.
+		@Override
+		protected PGraphics makeGraphics(int w, int h, String renderer, String path, boolean primary) {
+			return super.makeGraphics(w, h, renderer, path, primary);
+		}
+	}
+
+	/**
+	 * Java2D graphics that draws into an image of its own instead of asking a window for one.
+	 */
+	public static class HeadlessGraphics extends PGraphicsJava2D {
+		@Override
+		public Graphics2D checkImage() {
+			int w = width * pixelDensity;
+			int h = height * pixelDensity;
+			if (image == null || ((BufferedImage) image).getWidth() != w || ((BufferedImage) image).getHeight() != h) {
+				image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			}
+			return (Graphics2D) image.getGraphics();
+		}
+	}
+}
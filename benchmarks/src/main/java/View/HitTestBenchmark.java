@@ -0,0 +1,102 @@
+package View;
+
+import static View.Constants.*;
+
+import java.io.File;
+import java.time.LocalTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Controller.Controller;
+import Model.Alarm;
+import Model.SoundLibrary;
+import processing.core.PApplet;
+
+/**
+ * @author Brandon Blaschke
+ * Finding the widget under a touch on the main display and on the alarm edit display.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitTestBenchmark {
+	
+	/**
+	 * Number of touch points, a power of two.
+	 */
+	private static final int POINTS = 1024;
+	
+	/**
+	 * Widgets on the main display.
+	 */
+	private WidgetTree mainTree;
+	
+	/**
+	 * Widgets on the alarm edit display.
+	 */
+	private WidgetTree editTree;
+	
+	/**
+	 * Touch points spread over the screen.
+	 */
+	private float[] xs;
+	private float[] ys;
+	
+	/**
+	 * Index of the next touch point.
+	 */
+	private int next;
+	
+	@Setup
+	public void setup() {
+		PApplet parent = new PApplet();
+		parent.width = 800;
+		parent.height = 480;
+		TextCache textCache = new TextCache(parent, FONT_NAME);
+		Controller controller = new Controller(null);
+		SoundLibrary sounds = new SoundLibrary(new File("."), 0);
+		
+		mainTree = new WidgetTree(parent.width, parent.height);
+		AlarmWidget alarmWidget = null;
+		for (int i = 0; i < ALARM_POS.length; i++) {
+			alarmWidget = new AlarmWidget(parent, 80, ALARM_POS[i], new Alarm(i + 1, LocalTime.NOON), controller, sounds,
+					textCache);
+			alarmWidget.addWidgets(mainTree);
+		}
+		editTree = alarmWidget.getEditTree();
+		
+		Random random = new Random(42);
+		xs = new float[POINTS];
+		ys = new float[POINTS];
+		for (int i = 0; i < POINTS; i++) {
+			xs[i] = random.nextFloat() * parent.width;
+			ys[i] = random.nextFloat() * parent.height;
+		}
+	}
+	
+	@Benchmark
+	public Widget hitTestMain() {
+		int i = next++ & (POINTS - 1);
+		return mainTree.hitTest(xs[i], ys[i]);
+	}
+	
+	@Benchmark
+	public Widget hitTestEdit() {
+		int i = next++ & (POINTS - 1);
+		return editTree.hitTest(xs[i], ys[i]);
+	}
+}
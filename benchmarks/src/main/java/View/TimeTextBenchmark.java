@@ -0,0 +1,84 @@
+package View;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Brandon Blaschke
+ * Formatting the time shown on the main display and converting it to seconds, done
+ * every time the second changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeTextBenchmark {
+	
+	/**
+	 * Formatters with the same patterns the View uses.
+	 */
+	private DateTimeFormatter timeFormatter;
+	private DateTimeFormatter timeOfDayFormatter;
+	private DateTimeFormatter snoozeTimeFormatter;
+	
+	/**
+	 * Time being formatted.
+	 */
+	private LocalDateTime time;
+	
+	/**
+	 * Formatted time being converted.
+	 */
+	private String timeString;
+	private String timeOfDay;
+	
+	@Setup
+	public void setup() {
+		timeFormatter = DateTimeFormatter.ofPattern("hh:mm:ss", Locale.US);
+		timeOfDayFormatter = DateTimeFormatter.ofPattern("a", Locale.US);
+		snoozeTimeFormatter = DateTimeFormatter.ofPattern("hh:mm", Locale.US);
+		time = LocalDateTime.of(2020, 1, 5, 19, 45, 30);
+		timeString = timeFormatter.format(time);
+		timeOfDay = timeOfDayFormatter.format(time);
+	}
+	
+	@Benchmark
+	public long timeToSeconds() {
+		return View.timeToSeconds(timeString, timeOfDay);
+	}
+	
+	@Benchmark
+	public void formatTime(Blackhole bh) {
+		bh.consume(timeFormatter.format(time));
+		bh.consume(timeOfDayFormatter.format(time));
+	}
+	
+	@Benchmark
+	public String formatSnoozeTime() {
+		return snoozeTimeFormatter.format(time);
+	}
+	
+	/**
+	 * Everything the main display does when the second changes, apart from drawing.
+	 */
+	@Benchmark
+	public long formatAndConvert() {
+		return View.timeToSeconds(timeFormatter.format(time), timeOfDayFormatter.format(time));
+	}
+}
@@ -0,0 +1,50 @@
+package Model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Brandon Blaschke
+ * Runs each of AlarmSimulation's default runs as part of the build, so an alarm that
+ * fires twice, late or not at all around a daylight saving time change fails it.
+ */
+public class AlarmSimulationTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void springForward() throws IOException {
+		simulate(AlarmSimulation.DEFAULT_RUNS[0]);
+	}
+	
+	@Test
+	public void fallBack() throws IOException {
+		simulate(AlarmSimulation.DEFAULT_RUNS[1]);
+	}
+	
+	@Test
+	public void halfHourChange() throws IOException {
+		simulate(AlarmSimulation.DEFAULT_RUNS[2]);
+	}
+	
+	/**
+	 * Simulate a run and check every alarm fired when it should have.
+	 * @param run Zone, start date, days, alarms and seed.
+	 */
+	private void simulate(String[] run) throws IOException {
+		AlarmSimulation simulation = new AlarmSimulation(ZoneId.of(run[0]), LocalDate.parse(run[1]),
+				Integer.parseInt(run[3]), Long.parseLong(run[4]), folder.newFolder());
+		List<String> problems = simulation.run(Integer.parseInt(run[2]));
+		assertEquals(String.join("\n", problems), Collections.<String>emptyList(), problems);
+	}
+}
@@ -0,0 +1,31 @@
+package Model;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * @author Brandon Blaschke
+ * Runs ReplicationCheck as part of the build, so clocks that stop agreeing on their
+ * alarms, or one that doesn't catch up after being off the network, fail it. It needs
+ * multicast on the loopback interface and is skipped where that isn't available.
+ */
+public class ReplicationCheckTest {
+	
+	@Test
+	public void clocksAgree() throws Exception {
+		ReplicationCheck check;
+		try {
+			check = new ReplicationCheck(4, AlarmReplicator.DEFAULT_PORT + 1);
+		} catch (IllegalStateException e) {
+			Assume.assumeNoException(e);
+			return;
+		}
+		try {
+			assertTrue("Clocks didn't agree, see the output above", check.run(200));
+		} finally {
+			check.close();
+		}
+	}
+}